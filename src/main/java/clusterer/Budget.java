@@ -0,0 +1,182 @@
+package clusterer;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time limits for the stages of a run that can degrade instead of failing
+ * (-budget). A stage that runs out of time stops early: the class and member
+ * clustering stop adding classes, strategy 4 uses each word itself instead
+ * of looking up more synonyms, and -wfm skips the remaining types. The
+ * outputs of a degraded stage are still written, but marked as partial.
+ *
+ * The budget of a stage starts with its first check. The total budget starts
+ * with the run and also limits every stage. Outputs that cannot stop early,
+ * the class info and -cfm, are skipped if the total budget is spent before
+ * they start.
+ */
+public final class Budget {
+
+	public enum Stage {
+		CLUSTERS("clusters", "class clustering"), MEMBERS("members", "member clustering"),
+		SYNONYMS("synonyms", "synonym lookups"), WFM("wfm", "word field mappings");
+
+		final String key;
+		final String description;
+
+		Stage(String key, String description) {
+			this.key = key;
+			this.description = description;
+		}
+	}
+
+	public static final Budget UNLIMITED = new Budget(Long.MAX_VALUE, new EnumMap<Stage, Long>(Stage.class));
+
+	private final long start = System.currentTimeMillis();
+	private final long totalMillis;
+	private final Map<Stage, Long> stageMillis;
+	private final Map<Stage, Long> stageStart = new ConcurrentHashMap<Stage, Long>();
+	/** the time at which each exhausted stage stopped. */
+	private final Map<Stage, Long> exhausted = new ConcurrentHashMap<Stage, Long>();
+
+	private Budget(long totalMillis, Map<Stage, Long> stageMillis) {
+		this.totalMillis = totalMillis;
+		this.stageMillis = stageMillis;
+	}
+
+	/**
+	 * Parses a budget such as "10m" (total), or "total=10m,synonyms=90s,wfm=2m".
+	 * Durations are numbers with the unit ms, s, m, or h, seconds if none.
+	 *
+	 * @param spec
+	 *            the budget, or null for no limit.
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the budget cannot be parsed.
+	 */
+	public static Budget parse(String spec) {
+		if (spec == null || spec.trim().isEmpty()) {
+			return UNLIMITED;
+		}
+		long total = Long.MAX_VALUE;
+		final Map<Stage, Long> stages = new EnumMap<Stage, Long>(Stage.class);
+		for (String part : spec.split(",")) {
+			final int eq = part.indexOf('=');
+			if (eq < 0) {
+				total = parseMillis(part);
+				continue;
+			}
+			final String name = part.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+			final long millis = parseMillis(part.substring(eq + 1));
+			if ("total".equals(name)) {
+				total = millis;
+				continue;
+			}
+			Stage stage = null;
+			for (Stage s : Stage.values()) {
+				if (s.key.equals(name)) {
+					stage = s;
+				}
+			}
+			if (stage == null) {
+				throw new IllegalArgumentException("Unknown stage in budget: " + name);
+			}
+			stages.put(stage, millis);
+		}
+		return new Budget(total, stages);
+	}
+
+	private static long parseMillis(String duration) {
+		final String d = duration.trim().toLowerCase(Locale.ROOT);
+		long factor = 1000;
+		String number = d;
+		if (d.endsWith("ms")) {
+			factor = 1;
+			number = d.substring(0, d.length() - 2);
+		} else if (d.endsWith("s")) {
+			number = d.substring(0, d.length() - 1);
+		} else if (d.endsWith("m")) {
+			factor = 60 * 1000;
+			number = d.substring(0, d.length() - 1);
+		} else if (d.endsWith("h")) {
+			factor = 60 * 60 * 1000;
+			number = d.substring(0, d.length() - 1);
+		}
+		try {
+			final long value = Long.parseLong(number.trim());
+			if (value < 0) {
+				throw new IllegalArgumentException("Negative duration in budget: " + duration);
+			}
+			return value * factor;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a duration: " + duration);
+		}
+	}
+
+	/**
+	 * @param stage
+	 * @return the milliseconds left for the stage, Long.MAX_VALUE if it has
+	 *         no limit.
+	 */
+	public long remainingMillis(Stage stage) {
+		final long now = System.currentTimeMillis();
+		long remaining = totalMillis == Long.MAX_VALUE ? Long.MAX_VALUE : start + totalMillis - now;
+		final Long limit = stageMillis.get(stage);
+		if (limit != null) {
+			stageStart.putIfAbsent(stage, now);
+			remaining = Math.min(remaining, stageStart.get(stage) + limit - now);
+		}
+		return Math.max(0, remaining);
+	}
+
+	/**
+	 * @return true if the total budget of the run is spent.
+	 */
+	public boolean totalExpired() {
+		return totalMillis != Long.MAX_VALUE && System.currentTimeMillis() - start >= totalMillis;
+	}
+
+	/**
+	 * Checks if the stage is out of time. Once it is, it stays out of time
+	 * and its outputs are partial.
+	 *
+	 * @param stage
+	 * @return true if the stage should stop.
+	 */
+	public boolean expired(Stage stage) {
+		if (exhausted.containsKey(stage)) {
+			return true;
+		}
+		if (remainingMillis(stage) > 0) {
+			return false;
+		}
+		markExhausted(stage);
+		return true;
+	}
+
+	/**
+	 * Marks the stage as out of time, e.g., after a single step of it timed
+	 * out.
+	 */
+	public void markExhausted(Stage stage) {
+		if (exhausted.putIfAbsent(stage, System.currentTimeMillis()) == null) {
+			System.err.println("Time budget for " + stage.description + " exhausted after "
+					+ (System.currentTimeMillis() - start) + "ms, results will be partial.");
+		}
+	}
+
+	/**
+	 * @param stage
+	 * @return why the outputs of the stage are partial, or null if the stage
+	 *         completed.
+	 */
+	public String partialReason(Stage stage) {
+		final Long stopped = exhausted.get(stage);
+		if (stopped == null) {
+			return null;
+		}
+		return "time budget for " + stage.description + " exhausted after " + (stopped - start) + "ms";
+	}
+}
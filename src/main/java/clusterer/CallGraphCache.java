@@ -0,0 +1,346 @@
+package clusterer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import soot.Local;
+import soot.MethodOrMethodContext;
+import soot.PointsToAnalysis;
+import soot.PointsToSet;
+import soot.RefLikeType;
+import soot.Scene;
+import soot.SootMethod;
+import soot.Type;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+/**
+ * Binary cache of the call graph and points-to sets computed by
+ * {@link SceneLoader}. The file starts with a fingerprint of the analysis
+ * input (the bytes of all class files and jars on the classpath, the entry
+ * point, the exclusions, and the soot options for excluded classes), so a later run on unchanged input can skip SPARK and read
+ * the results with a {@link Reader} instead.
+ *
+ * Layout (gzip compressed): magic, version, fingerprint, string table, call
+ * graph edges as (source, target, kind) string ids, and points-to entries
+ * as (method, local, type ids).
+ */
+public final class CallGraphCache {
+
+	private static final int MAGIC = 0x43475043;
+	private static final int VERSION = 1;
+
+	private CallGraphCache() {
+		throw new Error("Utility class");
+	}
+
+	public interface EdgeVisitor {
+		void visit(String sourceMethod, String targetMethod, String kind);
+	}
+
+	public interface PointsToVisitor {
+		void visit(String method, String local, List<String> possibleTypes);
+	}
+
+	/**
+	 * Computes the fingerprint of an analysis input.
+	 *
+	 * @param classDirs
+	 *            the directories whose class files are analyzed.
+	 * @param classPath
+	 *            the soot classpath. The contents of its jars are hashed.
+	 * @param entryPoint
+	 *            the name of the main class.
+	 * @param excludedPackages
+	 *            the excluded packages, or null if everything is resolved.
+	 * @param sootExcludes
+	 *            the exclusions of the soot options, e.g., from -exclude.
+	 * @param noBodiesForExcluded
+	 *            the soot option of the same name.
+	 * @return a hex encoded SHA-256 hash.
+	 * @throws IOException
+	 */
+	public static String fingerprint(List<String> classDirs, String classPath, String entryPoint,
+			Collection<String> excludedPackages, List<String> sootExcludes, boolean noBodiesForExcluded)
+			throws IOException {
+		final MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		update(md, "v" + VERSION);
+		update(md, entryPoint);
+		update(md, excludedPackages == null ? "-" : String.join(",", excludedPackages));
+		update(md, String.join(",", sootExcludes));
+		update(md, Boolean.toString(noBodiesForExcluded));
+
+		for (String dir : classDirs) {
+			final Path root = new File(dir).toPath();
+			final List<Path> classFiles;
+			try (Stream<Path> files = Files.walk(root)) {
+				classFiles = files.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+			}
+			for (Path p : classFiles) {
+				update(md, root.relativize(p).toString());
+				md.update(Files.readAllBytes(p));
+			}
+		}
+		if (classPath != null) {
+			for (String entry : classPath.split(File.pathSeparator)) {
+				File f = new File(entry);
+				if (f.isFile()) {
+					update(md, f.getAbsolutePath());
+					try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+						final byte[] buffer = new byte[1 << 16];
+						int n;
+						while ((n = in.read(buffer)) > 0) {
+							md.update(buffer, 0, n);
+						}
+					}
+				}
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static void update(MessageDigest md, String s) {
+		md.update(s.getBytes(StandardCharsets.UTF_8));
+		md.update((byte) 0);
+	}
+
+	/**
+	 * @return true if the cache file exists and was written for the given
+	 *         fingerprint.
+	 */
+	public static boolean isUpToDate(File cacheFile, String fingerprint) {
+		if (!cacheFile.isFile()) {
+			return false;
+		}
+		try (Reader reader = open(cacheFile)) {
+			return fingerprint.equals(reader.fingerprint());
+		} catch (IOException e) {
+			System.err.println("Ignoring unreadable call graph cache " + cacheFile + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the call graph and the points-to sets of all locals in
+	 * reachable methods of the current scene. The cache file is replaced only
+	 * once it is complete, so that an interrupted run leaves no truncated
+	 * cache behind.
+	 *
+	 * @throws IOException
+	 */
+	public static void write(File cacheFile, String fingerprint) throws IOException {
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		final List<String> strings = new ArrayList<String>();
+
+		final CallGraph cg = Scene.v().getCallGraph();
+		final int[] edges = new int[cg.size() * 3];
+		int edgeCount = 0;
+		for (Iterator<Edge> it = cg.iterator(); it.hasNext();) {
+			Edge e = it.next();
+			if (e.src() == null || e.tgt() == null) {
+				continue;
+			}
+			edges[edgeCount * 3] = id(e.src().getSignature(), ids, strings);
+			edges[edgeCount * 3 + 1] = id(e.tgt().getSignature(), ids, strings);
+			edges[edgeCount * 3 + 2] = id(e.kind().name(), ids, strings);
+			edgeCount++;
+		}
+
+		final PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
+		final List<int[]> pointsTo = new LinkedList<int[]>();
+		for (Iterator<?> it = Scene.v().getReachableMethods().listener(); it.hasNext();) {
+			SootMethod sm = ((MethodOrMethodContext) it.next()).method();
+			if (!sm.hasActiveBody()) {
+				continue;
+			}
+			for (Local l : sm.getActiveBody().getLocals()) {
+				if (!(l.getType() instanceof RefLikeType)) {
+					continue;
+				}
+				PointsToSet pts = pta.reachingObjects(l);
+				Set<Type> types = pts.possibleTypes();
+				if (types.isEmpty()) {
+					continue;
+				}
+				int[] entry = new int[types.size() + 2];
+				entry[0] = id(sm.getSignature(), ids, strings);
+				entry[1] = id(l.getName(), ids, strings);
+				int i = 2;
+				for (Type t : types) {
+					entry[i++] = id(t.toString(), ids, strings);
+				}
+				pointsTo.add(entry);
+			}
+		}
+
+		final File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(fingerprint);
+			out.writeInt(strings.size());
+			for (String s : strings) {
+				out.writeUTF(s);
+			}
+			out.writeInt(edgeCount);
+			for (int i = 0; i < edgeCount * 3; i++) {
+				out.writeInt(edges[i]);
+			}
+			out.writeInt(pointsTo.size());
+			for (int[] entry : pointsTo) {
+				out.writeInt(entry[0]);
+				out.writeInt(entry[1]);
+				out.writeInt(entry.length - 2);
+				for (int i = 2; i < entry.length; i++) {
+					out.writeInt(entry[i]);
+				}
+			}
+		}
+		Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		System.out.println("Wrote " + edgeCount + " call edges and " + pointsTo.size() + " points-to sets to "
+				+ cacheFile);
+	}
+
+	private static int id(String s, Map<String, Integer> ids, List<String> strings) {
+		Integer id = ids.get(s);
+		if (id == null) {
+			id = strings.size();
+			ids.put(s, id);
+			strings.add(s);
+		}
+		return id;
+	}
+
+	public static Reader open(File cacheFile) throws IOException {
+		return new Reader(new GZIPInputStream(new FileInputStream(cacheFile)));
+	}
+
+	/**
+	 * Streams the content of a cache file. Only the string table is kept in
+	 * memory; edges and points-to sets are handed to the visitors one at a
+	 * time and must be read in that order.
+	 */
+	public static final class Reader implements Closeable {
+		private final DataInputStream in;
+		private final String fingerprint;
+		private String[] strings;
+		private boolean edgesRead = false;
+
+		private Reader(InputStream is) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(is));
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a call graph cache.");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported call graph cache version " + version);
+			}
+			this.fingerprint = in.readUTF();
+		}
+
+		public String fingerprint() {
+			return fingerprint;
+		}
+
+		private void readStrings() throws IOException {
+			if (strings == null) {
+				strings = new String[in.readInt()];
+				for (int i = 0; i < strings.length; i++) {
+					strings[i] = in.readUTF();
+				}
+			}
+		}
+
+		/**
+		 * Reads all call graph edges.
+		 *
+		 * @param visitor
+		 * @return the number of edges.
+		 * @throws IOException
+		 */
+		public int readEdges(EdgeVisitor visitor) throws IOException {
+			if (edgesRead) {
+				throw new IllegalStateException("Edges have already been read.");
+			}
+			readStrings();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String src = strings[in.readInt()];
+				String tgt = strings[in.readInt()];
+				visitor.visit(src, tgt, strings[in.readInt()]);
+			}
+			edgesRead = true;
+			return count;
+		}
+
+		/**
+		 * Reads all points-to sets. Skips the edges if they have not been
+		 * read yet.
+		 *
+		 * @param visitor
+		 * @return the number of points-to sets.
+		 * @throws IOException
+		 */
+		public int readPointsTo(PointsToVisitor visitor) throws IOException {
+			if (!edgesRead) {
+				readEdges((src, tgt, kind) -> {
+				});
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String method = strings[in.readInt()];
+				String local = strings[in.readInt()];
+				int n = in.readInt();
+				List<String> types = new ArrayList<String>(n);
+				for (int j = 0; j < n; j++) {
+					types.add(strings[in.readInt()]);
+				}
+				visitor.visit(method, local, Collections.unmodifiableList(types));
+			}
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
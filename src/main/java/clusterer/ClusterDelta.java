@@ -0,0 +1,336 @@
+package clusterer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Computes the changes to the clusters of a strategy since the previous run.
+ *
+ * Each run stores a compact state next to its output: the label, size, and
+ * a hash of the members of each cluster, followed by all (type, cluster)
+ * pairs sorted by type name. The next run sorts its own pairs the same way
+ * and compares them to the stored ones in a single merge pass, so the old
+ * clusters never have to be loaded into memory. The delta lists:
+ * <ul>
+ * <li>added: labels of clusters that did not exist before,</li>
+ * <li>removed: labels of clusters that do not exist anymore,</li>
+ * <li>relabeled: clusters with the same members but a new label,</li>
+ * <li>moved: types that left or joined clusters, other than by a
+ * relabeling. Types that are new or gone have no from or to clusters.</li>
+ * </ul>
+ *
+ * Layout of the state (gzip compressed): magic, version, clusters as
+ * (label, size, member hash), and (type name, cluster id) pairs.
+ */
+public final class ClusterDelta {
+
+	private static final int MAGIC = 0x434C4454;
+	private static final int VERSION = 1;
+
+	private ClusterDelta() {
+		throw new Error("Utility class");
+	}
+
+	/** The clusters of one run, in the layout of the state file. */
+	private static final class State {
+		final String[] labels;
+		final int[] sizes;
+		final long[] memberHashes;
+
+		State(int clusterCount) {
+			labels = new String[clusterCount];
+			sizes = new int[clusterCount];
+			memberHashes = new long[clusterCount];
+		}
+	}
+
+	/** Reads the (type, cluster) pairs of a state file one by one. */
+	private static final class PairReader implements Closeable {
+		private final DataInputStream data;
+		private int remaining;
+		String type;
+		int cluster;
+
+		PairReader(DataInputStream data, int count) {
+			this.data = data;
+			this.remaining = count;
+		}
+
+		/** @return false if there are no more pairs. */
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				type = null;
+				return false;
+			}
+			remaining--;
+			type = data.readUTF();
+			cluster = data.readInt();
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (data != null) {
+				data.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes the delta between the state of the previous run and the given
+	 * clusters, and replaces the state with the one of the given clusters.
+	 * If there is no previous state, every cluster is reported as added.
+	 *
+	 * @param clusters
+	 * @param stateFile
+	 *            the state of the previous run, which is overwritten.
+	 * @param deltaFile
+	 * @throws IOException
+	 */
+	public static void update(Map<String, Set<String>> clusters, File stateFile, File deltaFile)
+			throws IOException {
+		// the current state, with its pairs sorted by type name.
+		final State current = new State(clusters.size());
+		final List<String> pairTypes = new ArrayList<String>();
+		final List<Integer> pairClusters = new ArrayList<Integer>();
+		int id = 0;
+		for (Map.Entry<String, Set<String>> entry : clusters.entrySet()) {
+			current.labels[id] = entry.getKey();
+			current.sizes[id] = entry.getValue().size();
+			for (String type : entry.getValue()) {
+				current.memberHashes[id] += hash(type);
+				pairTypes.add(type);
+				pairClusters.add(id);
+			}
+			id++;
+		}
+		final Integer[] order = new Integer[pairTypes.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparing((Integer i) -> pairTypes.get(i)));
+
+		final File newStateFile = new File(stateFile.getPath() + ".tmp");
+		try (DataOutputStream data = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(newStateFile))))) {
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(current.labels.length);
+			for (int c = 0; c < current.labels.length; c++) {
+				data.writeUTF(current.labels[c]);
+				data.writeInt(current.sizes[c]);
+				data.writeLong(current.memberHashes[c]);
+			}
+			data.writeInt(order.length);
+			for (Integer i : order) {
+				data.writeUTF(pairTypes.get(i));
+				data.writeInt(pairClusters.get(i));
+			}
+		}
+
+		final State previous;
+		final PairReader previousPairs;
+		if (stateFile.exists()) {
+			final DataInputStream data = new DataInputStream(
+					new BufferedInputStream(new GZIPInputStream(new FileInputStream(stateFile))));
+			if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+				data.close();
+				throw new IOException("Not a cluster state: " + stateFile);
+			}
+			previous = new State(data.readInt());
+			for (int c = 0; c < previous.labels.length; c++) {
+				previous.labels[c] = data.readUTF();
+				previous.sizes[c] = data.readInt();
+				previous.memberHashes[c] = data.readLong();
+			}
+			previousPairs = new PairReader(data, data.readInt());
+		} else {
+			System.out.println("No previous state in " + stateFile + ", all clusters are new.");
+			previous = new State(0);
+			previousPairs = new PairReader(null, 0);
+		}
+
+		try (PairReader oldPairs = previousPairs; PrintWriter writer = OutputFiles.writer(deltaFile)) {
+			writeDelta(previous, oldPairs, current, pairTypes, pairClusters, order, writer);
+		}
+		Files.move(newStateFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeDelta(State previous, PairReader oldPairs, State current, List<String> pairTypes,
+			List<Integer> pairClusters, Integer[] order, PrintWriter writer) throws IOException {
+		final Map<String, Integer> currentIds = new HashMap<String, Integer>();
+		for (int c = 0; c < current.labels.length; c++) {
+			currentIds.put(current.labels[c], c);
+		}
+		final Map<String, Integer> previousIds = new HashMap<String, Integer>();
+		for (int c = 0; c < previous.labels.length; c++) {
+			previousIds.put(previous.labels[c], c);
+		}
+
+		// new clusters by their members, to find clusters that were only relabeled.
+		final Map<Long, LinkedList<Integer>> addedByMembers = new HashMap<Long, LinkedList<Integer>>();
+		final boolean[] added = new boolean[current.labels.length];
+		for (int c = 0; c < current.labels.length; c++) {
+			if (!previousIds.containsKey(current.labels[c])) {
+				added[c] = true;
+				final long key = current.memberHashes[c] * 31 + current.sizes[c];
+				if (!addedByMembers.containsKey(key)) {
+					addedByMembers.put(key, new LinkedList<Integer>());
+				}
+				addedByMembers.get(key).add(c);
+			}
+		}
+		// the current cluster of each previous cluster, or -1 if it was removed.
+		final int[] successor = new int[previous.labels.length];
+		final List<Integer> removed = new ArrayList<Integer>();
+		final List<Integer> relabeled = new ArrayList<Integer>();
+		for (int c = 0; c < previous.labels.length; c++) {
+			final Integer same = currentIds.get(previous.labels[c]);
+			if (same != null) {
+				successor[c] = same;
+				continue;
+			}
+			final LinkedList<Integer> candidates = addedByMembers
+					.get(previous.memberHashes[c] * 31 + previous.sizes[c]);
+			if (candidates != null && !candidates.isEmpty()) {
+				successor[c] = candidates.removeFirst();
+				added[successor[c]] = false;
+				relabeled.add(c);
+			} else {
+				successor[c] = -1;
+				removed.add(c);
+			}
+		}
+
+		int addedCount = 0;
+		writer.println("{");
+		writer.println("\t\"added\": [");
+		String comma = "";
+		for (int c = 0; c < added.length; c++) {
+			if (added[c]) {
+				writer.print(comma + "\t\t\"" + current.labels[c] + "\"");
+				comma = ",\n";
+				addedCount++;
+			}
+		}
+		writer.println("\n\t],");
+		writer.println("\t\"removed\": [");
+		comma = "";
+		for (int c : removed) {
+			writer.print(comma + "\t\t\"" + previous.labels[c] + "\"");
+			comma = ",\n";
+		}
+		writer.println("\n\t],");
+		writer.println("\t\"relabeled\": [");
+		comma = "";
+		for (int c : relabeled) {
+			writer.print(comma + "\t\t{\"from\": \"" + previous.labels[c] + "\", \"to\": \""
+					+ current.labels[successor[c]] + "\"}");
+			comma = ",\n";
+		}
+		writer.println("\n\t],");
+
+		// merge the pairs of both runs, which are sorted by type name.
+		writer.println("\t\"moved\": [");
+		comma = "";
+		int moved = 0;
+		int next = 0;
+		oldPairs.next();
+		while (oldPairs.type != null || next < order.length) {
+			final String type;
+			if (oldPairs.type == null) {
+				type = pairTypes.get(order[next]);
+			} else if (next == order.length) {
+				type = oldPairs.type;
+			} else {
+				type = min(oldPairs.type, pairTypes.get(order[next]));
+			}
+			// clusters of the type before and now, previous ones as current ids.
+			final TreeSet<String> before = new TreeSet<String>();
+			final TreeSet<Integer> beforeIds = new TreeSet<Integer>();
+			while (type.equals(oldPairs.type)) {
+				if (successor[oldPairs.cluster] < 0) {
+					before.add(previous.labels[oldPairs.cluster]);
+				} else {
+					beforeIds.add(successor[oldPairs.cluster]);
+				}
+				oldPairs.next();
+			}
+			final TreeSet<Integer> nowIds = new TreeSet<Integer>();
+			while (next < order.length && type.equals(pairTypes.get(order[next]))) {
+				nowIds.add(pairClusters.get(order[next]));
+				next++;
+			}
+			if (!before.isEmpty() || !beforeIds.equals(nowIds)) {
+				final TreeSet<Integer> left = new TreeSet<Integer>(beforeIds);
+				left.removeAll(nowIds);
+				for (int c : left) {
+					before.add(current.labels[c]);
+				}
+				nowIds.removeAll(beforeIds);
+				writer.print(comma + "\t\t{\"type\": \"" + type + "\", \"from\": [");
+				writer.print(joinQuoted(before));
+				writer.print("], \"to\": [");
+				final List<String> now = new ArrayList<String>();
+				for (int c : nowIds) {
+					now.add(current.labels[c]);
+				}
+				writer.print(joinQuoted(now));
+				writer.print("]}");
+				comma = ",\n";
+				moved++;
+			}
+		}
+		writer.println("\n\t]");
+		writer.println("}");
+		System.out.println("Delta: " + addedCount + " clusters added, " + removed.size() + " removed, "
+				+ relabeled.size() + " relabeled, " + moved + " types moved.");
+	}
+
+	private static String min(String a, String b) {
+		return a.compareTo(b) <= 0 ? a : b;
+	}
+
+	private static String joinQuoted(Iterable<String> labels) {
+		final StringBuilder sb = new StringBuilder();
+		for (String label : labels) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append('"').append(label).append('"');
+		}
+		return sb.toString();
+	}
+
+	/** 64 bit FNV-1a, summed over the members of a cluster. */
+	private static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+}
@@ -19,6 +19,12 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -50,8 +56,103 @@ public class ClusterGenerator {
 			return;
 		}
 
-		SceneLoader.loadFromClassDirs(directories, ".");
+		final List<Integer> strategies;
+		final RunContext context;
+		try {
+			options.validate();
+			strategies = options.getClusteringStrategies();
+			context = new RunContext(options, new ConcurrentHashMap<String, String>());
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			parser.printUsage(System.err);
+			return;
+		}
+
+		if (options.flightRecordingFileName != null) {
+			ClustererEvents.startRecording(new File(options.flightRecordingFileName));
+		}
+		try {
+			run(context, strategies);
+		} finally {
+			ClustererEvents.stopRecording();
+		}
+	}
+
+	private static void run(RunContext context, List<Integer> strategies) {
+		final Options options = context.options;
+		if (options.workerOutputFileName != null) {
+			ShardedRun.runWorker(options);
+			return;
+		}
+		if (options.shards > 1) {
+			ShardedRun.runCoordinator(context, strategies);
+			return;
+		}
+		if (options.watch) {
+			WatchMode.run(options, strategies);
+			return;
+		}
+
+		// the dictionary does not depend on the scene, so load both at once.
+		Future<Set<String>> dictFuture = ClusteringPipeline.async(ClusterGenerator::loadDictionary);
+
+		final PackageFilter filter = options.getPackageFilter();
+		SceneLoader.loadFromClassDirs(options.classDirList, ".", filter, options.applicationOnly);
+
+		Set<String> dict = ClusteringPipeline.join(dictFuture);
+
+		// tokenize once and share the words between all requested strategies.
+		final List<SootClass> classes = getAllClasses(filter, options.applicationOnly);
+		Map<Integer, Map<String, Set<String>>> clusters = ClusteringPipeline.run(classes, dict,
+				IGNORE_WORDS, strategies, context);
+		writeSceneOutputs(context, strategies, classes, dict, clusters);
+	}
 
+	/**
+	 * Writes the member clusters and all outputs of a run on the current
+	 * scene.
+	 * 
+	 * @param context
+	 * @param strategies
+	 * @param classes
+	 *            the classes to cluster, as returned by getAllClasses.
+	 * @param dict
+	 * @param clusters
+	 *            the clusters of each strategy.
+	 */
+	static void writeSceneOutputs(RunContext context, List<Integer> strategies, List<SootClass> classes,
+			Set<String> dict, Map<Integer, Map<String, Set<String>>> clusters) {
+		writeMemberClusters(context, strategies, classes, dict);
+		writeOutputs(context, strategies, clusters, () -> FieldTypeIndex.build(Scene.v().getApplicationClasses()),
+				file -> writeClassInfo(file, context.options.isNdjson()));
+	}
+
+	/**
+	 * Writes the method and field clusters, if requested.
+	 *
+	 * @param context
+	 * @param strategies
+	 * @param classes
+	 *            the classes whose members are clustered.
+	 * @param dict
+	 */
+	static void writeMemberClusters(RunContext context, List<Integer> strategies, List<SootClass> classes,
+			Set<String> dict) {
+		final Options options = context.options;
+		if (options.methodClusterFileName != null) {
+			writeMemberClusters(context, strategies, classes, dict, MemberClustering.Kind.METHODS,
+					new File(options.methodClusterFileName));
+		}
+		if (options.fieldClusterFileName != null) {
+			writeMemberClusters(context, strategies, classes, dict, MemberClustering.Kind.FIELDS,
+					new File(options.fieldClusterFileName));
+		}
+	}
+
+	static final Set<String> IGNORE_WORDS = Collections
+			.unmodifiableSet(new HashSet<String>(Arrays.asList(new String[] { "package" })));
+
+	static Set<String> loadDictionary() {
 		Set<String> dict = getEnglishDict();
 		Verify.verify(dict.contains("vector"));
 		Verify.verify(dict.contains("matrix"));
@@ -62,98 +163,104 @@ public class ClusterGenerator {
 		Verify.verify(dict.contains("cube"));
 		Verify.verify(dict.contains("cylinder"));
 		Verify.verify(dict.contains("capsule"));
+		return dict;
+	}
 
-		if(Options.v().verbose){ BasicExecutionMonitor.get().enable(); } else {
+	/**
+	 * Writes the clusters of each strategy and, if requested, the class info
+	 * and the field maps.
+	 * 
+	 * @param context
+	 * @param strategies
+	 * @param clusters
+	 *            the clusters of each strategy.
+	 * @param fieldIndex
+	 *            builds the field index for -cfm and -wfm.
+	 * @param classInfoWriter
+	 *            writes the class info to the given file.
+	 */
+	static void writeOutputs(RunContext context, List<Integer> strategies, Map<Integer, Map<String, Set<String>>> clusters,
+			Supplier<FieldTypeIndex> fieldIndex, Consumer<File> classInfoWriter) {
+		writeOutputs(context, strategies, strategies, clusters, fieldIndex, classInfoWriter);
+	}
+
+	/**
+	 * Writes only the given outputs and keeps the files of the others, e.g.,
+	 * if a rebuild in watch mode did not change them.
+	 * 
+	 * @param context
+	 * @param strategies
+	 *            all strategies of the run, which name the files.
+	 * @param written
+	 *            the strategies whose clusters and deltas are written.
+	 * @param clusters
+	 * @param fieldIndex
+	 *            builds the field index for -cfm and -wfm, or null to keep
+	 *            their files.
+	 * @param classInfoWriter
+	 *            writes the class info, or null to keep its file.
+	 */
+	static void writeOutputs(RunContext context, List<Integer> strategies, Collection<Integer> written,
+			Map<Integer, Map<String, Set<String>>> clusters, Supplier<FieldTypeIndex> fieldIndex,
+			Consumer<File> classInfoWriter) {
+		final Options options = context.options;
+		if(options.verbose){ BasicExecutionMonitor.get().enable(); } else {
 			BasicExecutionMonitor.get().disable();
 		}
 
-		Set<String> ignoreWords = new HashSet<String>(Arrays.asList(new String[] { "package" }));
-
-		File outFile = new File(options.outFileName);
-		switch (options.clusteringStrategy) {
-		case 1: {
-			writeToJson(strategy1(ignoreWords, dict), outFile);
-			break;
-		}
-		case 2: {
-			writeToJson(strategy2(ignoreWords, dict), outFile);
-			break;
-		}
-		case 3: {
-			writeToJson(strategy3(ignoreWords, dict), outFile);
-			break;
-		}
-		case 4: {
-			writeToJson(strategy4(ignoreWords, dict), outFile);
-			break;
-		}
-		case 5: {
-			writeToJson(strategy5(ignoreWords, dict), outFile);
-			break;
-		}
+		final boolean ndjson = options.isNdjson();
+		OutputPhase output = new OutputPhase();
+		for (int strategy : strategies) {
+			if (!written.contains(strategy)) {
+				continue;
+			}
+			File outFile = new File(options.outFileName);
+			if (strategies.size() > 1) {
+				outFile = strategyOutFile(outFile, strategy);
+			}
+			final File strategyFile = outFile;
+			final String partialReason = context.partialReason(Budget.Stage.CLUSTERS, strategy);
+			output.write(strategyFile.getName(), () -> {
+				if (ndjson) {
+					NdjsonOutput.writeClusters(clusters.get(strategy), strategyFile, partialReason);
+				} else {
+					writeToJson(clusters.get(strategy), strategyFile, partialReason);
+				}
+			});
+
+			if (options.deltaFileName != null && partialReason != null) {
+				// the state of partial clusters would show the missing classes as added next time.
+				System.err.println("Clusters of strategy " + strategy + " are partial, the delta is not updated.");
+			} else if (options.deltaFileName != null) {
+				File deltaFile = new File(options.deltaFileName);
+				if (strategies.size() > 1) {
+					deltaFile = strategyOutFile(deltaFile, strategy);
+				}
+				final File strategyDeltaFile = deltaFile;
+				final File stateFile = new File(strategyFile.getPath() + ".state");
+				output.write(strategyDeltaFile.getName(), () -> {
+					try {
+						ClusterDelta.update(clusters.get(strategy), stateFile, strategyDeltaFile);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				});
+			}
 		}
 
-		
-		if (options.classInfoFileName !=null) {
-			try (PrintWriter writer = new PrintWriter(new File(options.classInfoFileName), "UTF-8")) {
-				writer.println("{\"classinfo\": [");
-				String comma1 = "";				
-				for (SootClass sc : Scene.v().getApplicationClasses()) {
-					if (sc.resolvingLevel() < SootClass.SIGNATURES) continue;
-					writer.print(comma1);
-					writer.println("  {\"name\" : \"" + sc.getName() +"\",");
-					
-					if (sc.hasSuperclass()) {
-						writer.println("\t\"super\" : \"" + sc.getSuperclass() +"\",");
-					}
-					
-					writer.print("\t\"interfaces\" : [");
-					String comma2="";
-					for (SootClass interf : sc.getInterfaces()) {
-						writer.print(comma2);
-						writer.print("\""+interf.getName()+"\"");
-						comma2 = ",\n\t\t";
-					}
-					writer.println("],");
-
-					
-					writer.print("\t\"fields\" : [");
-					comma2="";
-					for (SootField sf : sc.getFields()) {
-						writer.print(comma2);
-						writer.print("{\"name\" : ");
-						writer.print("\""+sf.getName()+"\",\n\t\t");
-						writer.print("\"type\" : ");
-						writer.print("\""+sf.getType()+"\"}");
-
-						comma2 = ",\n\t\t";
-					}
-					writer.println("],");
-
-					writer.println("\t\"methods\" : [");
-					comma2="";
-					for (SootMethod sm : sc.getMethods()) {
-						writer.print(comma2);
-						sootMethodToJson(sm, writer, "\t\t");
-						comma2 = ",\n\t\t";
-					}
-					writer.println("]");
-
-					writer.println("}");
-					comma1 = ",\n";
-				}				
-				writer.println("]}");
-			} catch (FileNotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (UnsupportedEncodingException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} 
+		if (options.classInfoFileName !=null && classInfoWriter != null) {
+			final File classInfoFile = new File(options.classInfoFileName);
+			if (context.budget.totalExpired()) {
+				System.err.println("Time budget of the run exhausted, " + classInfoFile.getName() + " is not written.");
+			} else {
+				output.write(classInfoFile.getName(), () -> classInfoWriter.accept(classInfoFile));
+			}
 		}
-	
-		
-		if (options.classFieldMapFileName != null) {
+
+		if (options.classFieldMapFileName != null && fieldIndex != null && context.budget.totalExpired()) {
+			System.err.println("Time budget of the run exhausted, " + new File(options.classFieldMapFileName).getName()
+					+ " is not written.");
+		} else if (options.classFieldMapFileName != null && fieldIndex != null) {
 			/*
 			 * For each SootClass that is not a library class,
 			 * create a map entry that maps from this class to
@@ -163,100 +270,275 @@ public class ClusterGenerator {
 			 * 
 			 * Vector3f -> [Body.position, Material.color, Ray.direction]
 			 */
-			File mapFile = new File(options.classFieldMapFileName);
+			final File mapFile = new File(options.classFieldMapFileName);
 
-			Map<String, Collection<SootField>> fieldsOfType = new HashMap<String, Collection<SootField>>();
+			CompletableFuture<FieldTypeIndex> fieldsOfType = output.build("field index", () -> {
+				FieldTypeIndex index = fieldIndex.get();
+				System.out.println("Print field mapping for " + index.typeCount() + " classes.");
+				return index;
+			});
 
-			for (SootClass sc : Scene.v().getApplicationClasses()) {
-				if (sc.resolvingLevel() >= SootClass.SIGNATURES) {
-					for (SootField sf : sc.getFields()) {
-						// ignore this referneces.
-						if (!sf.getName().startsWith("this")) {
-							String key = sf.getType().toString();
-							if (sf.getType() instanceof RefType) {
-								SootClass declClass = ((RefType) sf.getType()).getSootClass();
-								key = declClass.toString();
-							}
-							if (!fieldsOfType.containsKey(key)) {
-								fieldsOfType.put(key, new LinkedList<SootField>());
-							}
-							fieldsOfType.get(key).add(sf);
-						}
-					}
+			output.write(mapFile.getName(), fieldsOfType, index -> {
+				if (ndjson) {
+					NdjsonOutput.writeFields(index, mapFile);
+				} else {
+					writeFieldsToJson(index, mapFile);
 				}
+			});
+
+			if (options.wordFieldMapFileName != null) {
+				final File wordMapFile = new File(options.wordFieldMapFileName);
+				output.write(wordMapFile.getName(), fieldsOfType, index -> writeWordFieldMapToJson(index, wordMapFile, ndjson,
+						context.budget, options.wordFieldCacheFileName == null ? null
+								: WordMappingCache.load(new File(options.wordFieldCacheFileName), options.wordFieldCacheSize)));
 			}
+		}
 
-			System.out.println("Print field mapping for " + fieldsOfType.size() + " classes.");
+		output.await();
+	}
 
-			writeFieldsToJson(fieldsOfType, mapFile);
+	/**
+	 * Clusters the method or field names of the classes and writes the
+	 * clusters of each strategy in the format of -wfm.
+	 * 
+	 * @param context
+	 * @param strategies
+	 * @param classes
+	 * @param dict
+	 * @param kind
+	 * @param outFile
+	 *            with more than one strategy, one file per strategy is
+	 *            written, named as for -out.
+	 */
+	private static void writeMemberClusters(RunContext context, List<Integer> strategies, List<SootClass> classes,
+			Set<String> dict, MemberClustering.Kind kind, File outFile) {
+		long start = System.currentTimeMillis();
+		Map<Integer, Map<String, List<String>>> clusters = MemberClustering.cluster(classes, kind, dict, IGNORE_WORDS,
+				strategies, context);
+		if (clusters.isEmpty()) {
+			System.err.println("Member names are only clustered with the strategies 1 to 5.");
+			return;
+		}
+		for (Map.Entry<Integer, Map<String, List<String>>> entry : clusters.entrySet()) {
+			final File strategyFile = clusters.size() > 1 ? strategyOutFile(outFile, entry.getKey()) : outFile;
+			final String partialReason = context.partialReason(Budget.Stage.MEMBERS, entry.getKey());
+			// the member names are already qualified with their classes.
+			final List<Map<String, List<String>>> mappings = Collections.singletonList(entry.getValue());
+			if (context.options.isNdjson()) {
+				NdjsonOutput.writeMappings(mappings, Collections.<String, String> emptyMap(), strategyFile, partialReason);
+			} else {
+				writeMappingsToJson(mappings, Collections.<String, String> emptyMap(), strategyFile, partialReason);
+			}
+		}
+		System.out.println("Clustered " + kind.name().toLowerCase() + " in " + (System.currentTimeMillis() - start) + "ms.");
+	}
 
-			if (options.wordFieldMapFileName != null) {
+	/**
+	 * Derives the output file of a single strategy if several strategies
+	 * are run at once, e.g., clusters.json -> clusters_cs3.json
+	 * 
+	 * @param outFile
+	 * @param strategy
+	 * @return
+	 */
+	static File strategyOutFile(File outFile, int strategy) {
+		String name = outFile.getName();
+		// keep the compression suffix, clusters.json.gz -> clusters_cs3.json.gz
+		final String gz = OutputFiles.isCompressed(outFile) ? ".gz" : "";
+		name = name.substring(0, name.length() - gz.length());
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot) + "_cs" + strategy + name.substring(dot);
+		} else {
+			name = name + "_cs" + strategy;
+		}
+		return new File(outFile.getParentFile(), name + gz);
+	}
 
-				final WordsTokenizer tokenizer = Tokenizers.tokenizeString();
+	/**
+	 * Writes the class info of all application classes in the scene.
+	 * 
+	 * @param outfile
+	 * @param ndjson
+	 *            write one class per line.
+	 */
+	static void writeClassInfo(File outfile, boolean ndjson) {
+		if (ndjson) {
+			NdjsonOutput.writeClassInfo(outfile);
+		} else {
+			writeClassInfoToJson(outfile);
+		}
+	}
 
-				final List<Map<String, List<String>>> result = new ArrayList<>();
+	private static void writeClassInfoToJson(File outfile) {
+		try (PrintWriter writer = OutputFiles.writer(outfile)) {
+			writer.println("{\"classinfo\": [");
+			String comma1 = "";				
+			for (SootClass sc : Scene.v().getApplicationClasses()) {
+				if (sc.resolvingLevel() < SootClass.SIGNATURES) continue;
+				writer.print(comma1);
+				writer.println("  {\"name\" : \"" + sc.getName() +"\",");
+				
+				if (sc.hasSuperclass()) {
+					writer.println("\t\"super\" : \"" + sc.getSuperclass() +"\",");
+				}
+				
+				writer.print("\t\"interfaces\" : [");
+				String comma2="";
+				for (SootClass interf : sc.getInterfaces()) {
+					writer.print(comma2);
+					writer.print("\""+interf.getName()+"\"");
+					comma2 = ",\n\t\t";
+				}
+				writer.println("],");
+
+				
+				writer.print("\t\"fields\" : [");
+				comma2="";
+				for (SootField sf : sc.getFields()) {
+					writer.print(comma2);
+					writer.print("{\"name\" : ");
+					writer.print("\""+sf.getName()+"\",\n\t\t");
+					writer.print("\"type\" : ");
+					writer.print("\""+sf.getType()+"\"}");
+
+					comma2 = ",\n\t\t";
+				}
+				writer.println("],");
+
+				writer.println("\t\"methods\" : [");
+				comma2="";
+				for (SootMethod sm : sc.getMethods()) {
+					writer.print(comma2);
+					sootMethodToJson(sm, writer, "\t\t");
+					comma2 = ",\n\t\t";
+				}
+				writer.println("]");
 
-				// index: field-name -> declaring class name
-				final Map<String, String> index = new HashMap<>();
+				writer.println("}");
+				comma1 = ",\n";
+			}				
+			writer.println("]}");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-				for(Collection<SootField> each : fieldsOfType.values()){
-					final Set<String> allFields = each.stream()
-						.map(SootField::getName)
-						.collect(Collectors.toSet());
+	/**
+	 * For each type, finds the relevant words in the names of the fields of
+	 * that type and maps them to the fields they occur in.
+	 * 
+	 * @param fieldsOfType
+	 * @param wordMapFile
+	 * @param ndjson
+	 *            write one mapping per line.
+	 * @param budget
+	 *            the remaining types are skipped once the wfm budget is spent.
+	 * @param cache
+	 *            the mappings of previous runs, or null.
+	 */
+	private static void writeWordFieldMapToJson(FieldTypeIndex fieldsOfType, File wordMapFile, boolean ndjson,
+			Budget budget, WordMappingCache cache) {
+		final WordsTokenizer tokenizer = Tokenizers.tokenizeString();
 
-					final Corpus<String> corpus 		= Corpus.ofStrings();
+		final List<Map<String, List<String>>> result = new ArrayList<>();
 
-					each.forEach(e -> {
-						corpus.add(e.getName());
-						index.put(e.getName(), e.getDeclaringClass().getName());
-					});
+		// index: field-name -> declaring class name
+		final Map<String, String> index = new HashMap<>();
 
-					final Map<List<Word>, List<Word>> relevantMaps = Introspector.buildWordsMap(
-						corpus, tokenizer
-					);
+		for(int type = 0; type < fieldsOfType.typeCount(); type++){
+			if (budget.expired(Budget.Stage.WFM)) {
+				System.err.println("Skipping the word field mappings of " + (fieldsOfType.typeCount() - type) + " types.");
+				break;
+			}
+			final Set<String> allFields = new HashSet<>();
+			final List<String> names = new ArrayList<>();
+
+			for(int i = 0; i < fieldsOfType.fieldCount(type); i++){
+				final int field = fieldsOfType.field(type, i);
+				final String name = fieldsOfType.fieldName(field);
+				allFields.add(name);
+				names.add(name);
+				index.put(name, fieldsOfType.declaringClassName(field));
+			}
 
-					if(relevantMaps.isEmpty()) continue;
+			// unchanged field names of a type skip the text mining.
+			final WordMappingCache.Key key = cache == null ? null : cache.keyOf(names);
+			Map<String, List<String>> wordFieldsMap = key == null ? null : cache.get(key);
+			if(wordFieldsMap == null){
+				wordFieldsMap = mineWordFields(names, allFields, tokenizer);
+				if(key != null) cache.put(key, wordFieldsMap);
+			}
 
-					final List<Word> a = Iterables.get(relevantMaps.keySet(), 0);
-					final List<Word> b = Iterables.get(relevantMaps.values(), 0);
+			if(wordFieldsMap.isEmpty()) continue;
 
-					final List<Word> 	wordList	= b.isEmpty() ? a/*frequent words*/ : b/*typical words*/;
+			result.add(wordFieldsMap);
+		}
 
-					final Set<String>	relevant	= wordList.stream()
-						.map(Word::element)
-						.collect(Collectors.toSet());
+		if (cache != null) {
+			try {
+				cache.save();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 
-					final Set<String> universe	= corpus.dataSet();
+		// a partial result is written even if empty, so it is marked as partial.
+		final String partialReason = budget.partialReason(Budget.Stage.WFM);
+		if((!result.isEmpty() || partialReason != null) && ndjson){
+			NdjsonOutput.writeMappings(result, index, wordMapFile, partialReason);
+		} else if(!result.isEmpty() || partialReason != null){
+			writeMappingsToJson(result, index, wordMapFile, partialReason);
+		} else {
+			System.out.println("Warning: Unable to produce any clusters!");
+		}
+	}
 
-					Map<String, List<String>> wordFieldsMap = Recommend.mappingOfLabels(
-						relevant, universe
-					);
+	/**
+	 * Finds the relevant words in the field names of a type and maps them to
+	 * the fields they occur in.
+	 * 
+	 * @param names
+	 *            the field names of the type, with duplicates.
+	 * @param allFields
+	 *            the distinct field names of the type.
+	 * @param tokenizer
+	 * @return label -> fields, empty if no word is relevant.
+	 */
+	private static Map<String, List<String>> mineWordFields(List<String> names, Set<String> allFields,
+			WordsTokenizer tokenizer) {
+		final Corpus<String> corpus 		= Corpus.ofStrings();
+		for(String name : names){
+			corpus.add(name);
+		}
 
-					if(wordFieldsMap.isEmpty()) continue;
+		final Map<List<Word>, List<Word>> relevantMaps = Introspector.buildWordsMap(
+			corpus, tokenizer
+		);
 
-					// removes entries where a label is mapped to an empty list (e.g., food -> ())
-					wordFieldsMap = wordFieldsMap.entrySet().stream()
-						.filter(e -> !e.getValue().isEmpty()) // pick entries with non empty values
-						.filter(e -> e.getValue().size() > 1) // pick entries with values size > 1
-						.filter(e -> e.getValue().containsAll(allFields)) // pick entries that don't contain ALL available fields
-						.collect(Collectors.toMap(Entry::getKey, Entry::getValue));
+		if(relevantMaps.isEmpty()) return Collections.emptyMap();
 
-					if(wordFieldsMap.isEmpty()) continue;
+		final List<Word> a = Iterables.get(relevantMaps.keySet(), 0);
+		final List<Word> b = Iterables.get(relevantMaps.values(), 0);
 
-					result.add(wordFieldsMap);
-				}
+		final List<Word> 	wordList	= b.isEmpty() ? a/*frequent words*/ : b/*typical words*/;
 
-				if(!result.isEmpty()){
-					final File wordMapFile = new File(options.wordFieldMapFileName);
+		final Set<String>	relevant	= wordList.stream()
+			.map(Word::element)
+			.collect(Collectors.toSet());
 
-					writeMappingsToJson(result, index, wordMapFile);
-				} else {
-					System.out.println("Warning: Unable to produce any clusters!");
-				}
-			}
+		final Set<String> universe	= corpus.dataSet();
 
-		}
+		final Map<String, List<String>> wordFieldsMap = Recommend.mappingOfLabels(
+			relevant, universe
+		);
 
+		// removes entries where a label is mapped to an empty list (e.g., food -> ())
+		return wordFieldsMap.entrySet().stream()
+			.filter(e -> !e.getValue().isEmpty()) // pick entries with non empty values
+			.filter(e -> e.getValue().size() > 1) // pick entries with values size > 1
+			.filter(e -> e.getValue().containsAll(allFields)) // pick entries that don't contain ALL available fields
+			.collect(Collectors.toMap(Entry::getKey, Entry::getValue));
 	}
 
 	private static void sootMethodToJson(SootMethod sm, PrintWriter pw, final String indent) {
@@ -274,11 +556,18 @@ public class ClusterGenerator {
 		pw.print(indent+"}");
 	}
 	
-	private static void writeToJson(Map<String, Set<SootClass>> clusters, File outfile) {
-		try (PrintWriter writer = new PrintWriter(outfile, "UTF-8");) {
+	/**
+	 * @param clusters
+	 * @param outfile
+	 * @param partialReason
+	 *            if not null, the clusters are marked as partial for this
+	 *            reason.
+	 */
+	static void writeToJson(Map<String, Set<String>> clusters, File outfile, String partialReason) {
+		try (PrintWriter writer = OutputFiles.writer(outfile);) {
 			writer.println("{\n\t\"mappings\": [");
 			boolean first = true;
-			for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
+			for (Entry<String, Set<String>> entry : clusters.entrySet()) {
 				if (first) {
 					first = false;
 				} else {
@@ -287,14 +576,14 @@ public class ClusterGenerator {
 				writer.println("\t\t{");
 				writer.println("\t\t \"types\":[");
 				boolean firstSignature = true;
-				for (SootClass sc : entry.getValue()) {
+				for (String type : entry.getValue()) {
 					if (firstSignature) {
 						firstSignature = false;
 					} else {
 						writer.println(",");
 					}
 					writer.print("\t\t\t\"");
-					writer.print(sc.getName());
+					writer.print(type);
 					writer.print("\"");
 				}
 				writer.println("\n\t\t ],");
@@ -303,21 +592,28 @@ public class ClusterGenerator {
 				writer.println("\t\t ]");
 				writer.print("\n\t\t}");
 			}
-			writer.println("\n\t]\n}");
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
+			writer.print("\n\t]");
+			writePartial(writer, partialReason);
+			writer.println("\n}");
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private static void writeFieldsToJson(Map<String, Collection<SootField>> classToFields, File outfile) {
-		try (PrintWriter writer = new PrintWriter(outfile, "UTF-8")) {
+	/**
+	 * Marks a json output as partial, after its mappings.
+	 */
+	private static void writePartial(PrintWriter writer, String partialReason) {
+		if (partialReason != null) {
+			writer.print(",\n\t\"partial\": true,\n\t\"reason\": \"" + partialReason + "\"");
+		}
+	}
+
+	private static void writeFieldsToJson(FieldTypeIndex classToFields, File outfile) {
+		try (PrintWriter writer = OutputFiles.writer(outfile)) {
 			writer.println("{\n\t\"mappings\": [");
 			boolean first = true;
-			for (Entry<String, Collection<SootField>> entry : classToFields.entrySet()) {
+			for (int type = 0; type < classToFields.typeCount(); type++) {
 				if (first) {
 					first = false;
 				} else {
@@ -326,34 +622,31 @@ public class ClusterGenerator {
 				writer.println("\t\t{");
 				writer.println("\t\t \"fields\":[");
 				boolean firstSignature = true;
-				for (SootField sf : entry.getValue()) {
+				for (int i = 0; i < classToFields.fieldCount(type); i++) {
 					if (firstSignature) {
 						firstSignature = false;
 					} else {
 						writer.println(",");
 					}
 					writer.print("\t\t\t\"");
-					writer.print(sf.getName());
+					writer.print(classToFields.fieldName(classToFields.field(type, i)));
 					writer.print("\"");
 				}
 				writer.println("\n\t\t ],");
 				writer.println("\t\t \"class\":[");
-				writer.println("\t\t\t\"" + entry.getKey() + "\"");
+				writer.println("\t\t\t\"" + classToFields.typeName(type) + "\"");
 				writer.println("\t\t ]");
 				writer.print("\n\t\t}");
 			}
 			writer.println("\n\t]\n}");
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (UnsupportedEncodingException e) {
-			// TODO Auto-generated catch block
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private static void writeMappingsToJson(List<Map<String, List<String>>> wordToFields, Map<String, String> index, File outfile) {
-		try (PrintWriter writer = new PrintWriter(outfile, "UTF-8")) {
+	static void writeMappingsToJson(List<Map<String, List<String>>> wordToFields, Map<String, String> index, File outfile,
+			String partialReason) {
+		try (PrintWriter writer = OutputFiles.writer(outfile)) {
 			writer.println("{\n\t\"mappings\": [");
 			boolean first = true;
 			for (Map<String, List<String>> map : wordToFields) {
@@ -393,166 +686,344 @@ public class ClusterGenerator {
 				}
 
 			}
-			writer.println("\n\t]\n}");
+			writer.print("\n\t]");
+			writePartial(writer, partialReason);
+			writer.println("\n}");
 		} catch (IOException e) {
 			e.printStackTrace(System.err);
 		}
 	}
 
 	/**
-	 * map from FunFactory to "fun;factory" unless super class contains
-	 * "factory", then only map to "fun".
+	 * The words of a class name and, if the class extends an application
+	 * class, the words of its super class. Computed once per run and shared
+	 * by all strategies, so several strategies can be run in a single pass.
 	 * 
-	 * @param ignoreWords
-	 * @param dict
-	 * @return
+	 * The words are kept as handles into the word arena of the run (see
+	 * {@link RunContext#words}), so each distinct word is stored once no
+	 * matter how many class names contain it.
 	 */
-	private static Map<String, Set<SootClass>> strategy2(Set<String> ignoreWords, Set<String> dict) {
-		Map<String, Set<SootClass>> clusters = new LinkedHashMap<String, Set<SootClass>>();
+	static final class TokenizedClass {
+		/** the name of the class, which is what the clusters contain. */
+		final String name;
+		final int[] words;
+		/** null if the class does not extend an application class. */
+		final int[] parentWords;
+		/** the arena of the handles. */
+		final NameArena arena;
+
+		TokenizedClass(String name, int[] words, int[] parentWords, NameArena arena) {
+			this.name = name;
+			this.words = words;
+			this.parentWords = parentWords;
+			this.arena = arena;
+		}
 
-		for (SootClass sc : getAllClasses()) {
+		/**
+		 * @param ignoreWords
+		 * @return the words of the class name without the ignored words.
+		 */
+		List<String> keyWords(Set<String> ignoreWords) {
+			return decode(null, false, ignoreWords);
+		}
 
-			if (innerOrStaticNested(sc)) {
-				// ignore nested classes
-				continue;
-			}
+		/**
+		 * @param ignoreWords
+		 * @return the words of the class name without the ignored words and
+		 *         without the words of the super class.
+		 */
+		List<String> keyWordsWithoutParent(Set<String> ignoreWords) {
+			return decode(parentWords, false, ignoreWords);
+		}
 
-			List<String> stemmedWords = splitIntoWords(sc.getJavaStyleName(), dict);
+		/**
+		 * @param ignoreWords
+		 * @return the words of the class name without the ignored words,
+		 *         reduced to those shared with the super class. If no word
+		 *         is shared, all words are kept.
+		 */
+		List<String> keyWordsSharedWithParent(Set<String> ignoreWords) {
+			boolean shared = false;
+			if (parentWords != null) {
+				for (int w : words) {
+					shared |= contains(parentWords, w);
+				}
+			}
+			return decode(shared ? parentWords : null, true, ignoreWords);
+		}
 
-			if (sc.resolvingLevel() >= SootClass.HIERARCHY && sc.hasSuperclass()
-					&& sc.getSuperclass().isApplicationClass()) {
-				List<String> stemmedParentWords = splitIntoWords(sc.getSuperclass().getJavaStyleName(), dict);
-				stemmedWords.removeAll(stemmedParentWords);
+		/**
+		 * Filters the handles before they are decoded, so each kept word is
+		 * decoded once and no intermediate lists are built.
+		 *
+		 * @param filter
+		 *            the handles to test the words against, or null to keep
+		 *            all words.
+		 * @param keepIfContained
+		 *            keep the words in the filter, or those not in it.
+		 */
+		private List<String> decode(int[] filter, boolean keepIfContained, Set<String> ignoreWords) {
+			final List<String> result = new ArrayList<String>(words.length);
+			for (int w : words) {
+				if (filter != null && contains(filter, w) != keepIfContained) {
+					continue;
+				}
+				final String word = arena.get(w);
+				if (!ignoreWords.contains(word)) {
+					result.add(word);
+				}
 			}
+			return result;
+		}
 
-			stemmedWords.removeAll(ignoreWords);
-			if (!stemmedWords.isEmpty()) {
-				final String key = makeKey(stemmedWords);
-				if (!clusters.containsKey(key)) {
-					clusters.put(key, new ArraySet<SootClass>());
+		private static boolean contains(int[] handles, int handle) {
+			for (int h : handles) {
+				if (h == handle) {
+					return true;
 				}
-				clusters.get(key).add(sc);
 			}
+			return false;
 		}
+	}
 
-		System.out.println("Total clusters: " + clusters.size());
+	/**
+	 * Splits the names of all loaded (non-nested) classes and their super
+	 * classes into words. Names that occur more than once (e.g., a common
+	 * super class) are only split once.
+	 * 
+	 * @param dict
+	 * @param arena
+	 *            receives the words.
+	 * @return
+	 */
+	static List<TokenizedClass> tokenizeClasses(Set<String> dict, NameArena arena) {
+		final Map<String, int[]> splitCache = new HashMap<>();
+		final List<TokenizedClass> result = new ArrayList<>();
 
-		List<String> toRemove = new LinkedList<String>();
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			if (entry.getValue().size() <= 1) {
-				toRemove.add(entry.getKey());
+		for (SootClass sc : getAllClasses()) {
+			TokenizedClass tc = tokenize(sc, dict, splitCache, arena);
+			if (tc != null) {
+				result.add(tc);
 			}
 		}
-		for (String s : toRemove) {
-			clusters.remove(s);
+		return result;
+	}
+
+	/**
+	 * Splits the name of a class and of its super class into words. Safe to
+	 * call from several threads if the splitCache is a concurrent map.
+	 * 
+	 * @param sc
+	 * @param dict
+	 * @param splitCache
+	 *            words of class names that have been split already.
+	 * @param arena
+	 *            the arena of the handles in the splitCache.
+	 * @return the words, or null if the class is nested and thus ignored.
+	 */
+	static TokenizedClass tokenize(SootClass sc, Set<String> dict, Map<String, int[]> splitCache,
+			NameArena arena) {
+		if (innerOrStaticNested(sc)) {
+			// ignore nested classes
+			return null;
 		}
 
-		System.out.println("Total clusters >1: " + clusters.size());
-		int ttword = 0;
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			ttword += entry.getValue().size();
+		int[] words = cachedSplit(sc.getJavaStyleName(), dict, splitCache, arena);
+		int[] parentWords = null;
+
+		if (sc.resolvingLevel() >= SootClass.HIERARCHY && sc.hasSuperclass()
+				&& sc.getSuperclass().isApplicationClass()) {
+			parentWords = cachedSplit(sc.getSuperclass().getJavaStyleName(), dict, splitCache, arena);
 		}
-		System.out.println("Relabeled terms : " + ttword);
+		return new TokenizedClass(sc.getName(), words, parentWords, arena);
+	}
 
-		return clusters;
+	/**
+	 * @return the handles of the words of the name in the arena.
+	 */
+	static int[] cachedSplit(String name, Set<String> dict, Map<String, int[]> splitCache, NameArena arena) {
+		int[] words = splitCache.get(name);
+		if (words == null) {
+			words = arena.intern(splitIntoWords(name, dict));
+			int[] old = splitCache.putIfAbsent(name, words);
+			if (old != null) {
+				words = old;
+			}
+		}
+		return words;
 	}
 
-	private static Set<SootClass> getAllClasses() {
-		Set<SootClass> allClasses = new ArraySet<SootClass>();
-		allClasses.addAll(Scene.v().getApplicationClasses());
-		allClasses.addAll(Scene.v().getLibraryClasses());
-		System.out.println("Total classes loaded: " + allClasses.size());
-		return allClasses;
+	/**
+	 * A clustering strategy that receives classes one at a time, so it can
+	 * start clustering while other classes are still being tokenized.
+	 */
+	interface Strategy {
+		/**
+		 * Adds a class to its cluster. Called from a single thread, in the
+		 * order of {@link ClusterGenerator#getAllClasses()}, which a sharded
+		 * run restores.
+		 */
+		void add(TokenizedClass tc);
+
+		/**
+		 * Drops small clusters and merges clusters by the rules of its
+		 * {@link Coalescer}.
+		 * 
+		 * @return the final clusters.
+		 */
+		Map<String, Set<String>> finish();
 	}
 
-	private static Map<String, Set<SootClass>> strategy5(Set<String> ignoreWords, Set<String> dict) {
-		SortedMap<String, Set<SootClass>> clusters = new TreeMap<>();
+	static Strategy newStrategy(int strategy, Set<String> ignoreWords, RunContext context) {
+		final Options options = context.options;
+		final Coalescer coalescer = context.coalescer(strategy);
+		switch (strategy) {
+		case 1:
+			return strategy1(ignoreWords, coalescer);
+		case 2:
+			return strategy2(ignoreWords, coalescer);
+		case 3:
+			return strategy3(ignoreWords, coalescer);
+		case 4:
+			return strategy4(ignoreWords, coalescer, context.synonyms);
+		case 5:
+			return new Strategy5(ignoreWords, coalescer);
+		case 6:
+			return new MinHashStrategy(ignoreWords, options.minHashThreshold, options.minHashBands,
+					options.minHashRows, coalescer);
+		case 7:
+			return new HierarchicalStrategy(ignoreWords, options.getClusterLevels(), coalescer);
+		default:
+			throw new IllegalArgumentException("Unknown clustering strategy: " + strategy);
+		}
+	}
 
-		for (SootClass sc : getAllClasses()) {
+	static Map<String, Set<String>> runStrategy(int strategy, List<TokenizedClass> classes,
+			Set<String> ignoreWords, RunContext context) {
+		Strategy s = newStrategy(strategy, ignoreWords, context);
+		for (TokenizedClass tc : classes) {
+			s.add(tc);
+		}
+		return s.finish();
+	}
 
-			if (innerOrStaticNested(sc)) {
-				// ignore nested classes
-				continue;
+	/**
+	 * Strategies that use the words computed by keyWords as hash key.
+	 */
+	private static class BucketStrategy implements Strategy {
+		final Map<String, Set<String>> clusters;
+		final Coalescer coalescer;
+		final Function<TokenizedClass, List<String>> keyWords;
+
+		BucketStrategy(Map<String, Set<String>> clusters, Coalescer coalescer,
+				Function<TokenizedClass, List<String>> keyWords) {
+			this.clusters = clusters;
+			this.coalescer = coalescer;
+			this.keyWords = keyWords;
+		}
+
+		@Override
+		public void add(TokenizedClass tc) {
+			List<String> stemmedWords = keyWords.apply(tc);
+			if (!stemmedWords.isEmpty()) {
+				addToCluster(clusters, makeKey(stemmedWords), tc.name);
 			}
+		}
 
-			List<String> stemmedWords = splitIntoWords(sc.getJavaStyleName(), dict);
+		@Override
+		public Map<String, Set<String>> finish() {
+			final Map<String, Set<String>> coalesced = coalescer.apply(clusters);
+			printRelabeledTerms(coalesced);
+			return coalesced;
+		}
+	}
 
-			if (sc.resolvingLevel() >= SootClass.HIERARCHY && sc.hasSuperclass()
-					&& sc.getSuperclass().isApplicationClass()) {
-				List<String> stemmedParentWords = splitIntoWords(sc.getSuperclass().getJavaStyleName(), dict);
-				int sharedWords = 0;
-				for (String s : stemmedParentWords) {
-					if (stemmedWords.contains(s)) {
-						sharedWords++;
-					}
-				}
-				if (sharedWords > 0) {
-					stemmedWords.retainAll(stemmedParentWords);
-				}
-			}
+	private static void addToCluster(Map<String, Set<String>> clusters, String key, String name) {
+		if (!clusters.containsKey(key)) {
+			clusters.put(key, new ArraySet<String>());
+		}
+		clusters.get(key).add(name);
+	}
 
-			stemmedWords.removeAll(ignoreWords);
-			if (!stemmedWords.isEmpty()) {
-				final String key = makeKey(stemmedWords);
-				final String candKey = resolveKey(key, stemmedWords, clusters);
+	static void printRelabeledTerms(Map<String, Set<String>> clusters) {
+		int ttword = 0;
+		for (Entry<String, Set<String>> entry : clusters.entrySet()) {
+			ttword += entry.getValue().size();
+		}
+		System.out.println("Relabeled terms : " + ttword);
+	}
 
-				if (!clusters.containsKey(candKey)) {
-					clusters.put(key, new ArraySet<>());
-				}
+	/**
+	 * map from FunFactory to "fun;factory" unless super class contains
+	 * "factory", then only map to "fun".
+	 * 
+	 * @param ignoreWords
+	 * @return
+	 */
+	private static Strategy strategy2(Set<String> ignoreWords, Coalescer coalescer) {
+		return new BucketStrategy(new LinkedHashMap<String, Set<String>>(), coalescer, tc -> {
+			return tc.keyWordsWithoutParent(ignoreWords);
+		});
+	}
 
-				clusters.get(candKey).add(sc);
+	static List<SootClass> getAllClasses() {
+		return getAllClasses(PackageFilter.ALL, false);
+	}
 
-			}
+	/**
+	 * @param filter
+	 * @param applicationOnly
+	 *            if true, library classes are not clustered.
+	 * @return the classes to cluster, application classes first, in the
+	 *         order in which soot loaded them.
+	 */
+	static List<SootClass> getAllClasses(PackageFilter filter, boolean applicationOnly) {
+		Set<SootClass> allClasses = new ArraySet<SootClass>();
+		allClasses.addAll(Scene.v().getApplicationClasses());
+		if (!applicationOnly) {
+			allClasses.addAll(Scene.v().getLibraryClasses());
+		}
+		System.out.println("Total classes loaded: " + allClasses.size());
+		if (filter != PackageFilter.ALL) {
+			allClasses.removeIf(sc -> !filter.accepts(sc.getName()));
+			System.out.println("Classes after package filter: " + allClasses.size());
 		}
+		return new ArrayList<SootClass>(allClasses);
+	}
 
-		System.out.println("Total clusters: " + clusters.size());
+	private static class Strategy5 implements Strategy {
+		final SortedMap<String, Set<String>> clusters = new TreeMap<>();
+		final Set<String> ignoreWords;
+		final Coalescer coalescer;
 
-		List<String> toRemove = new LinkedList<>();
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			if (entry.getValue().size() <= 1) {
-				toRemove.add(entry.getKey());
-			}
-		}
-		for (String s : toRemove) {
-			clusters.remove(s);
+		Strategy5(Set<String> ignoreWords, Coalescer coalescer) {
+			this.ignoreWords = ignoreWords;
+			this.coalescer = coalescer;
 		}
 
-		System.out.println("Total clusters >1: " + clusters.size());
+		@Override
+		public void add(TokenizedClass tc) {
+			List<String> stemmedWords = tc.keyWordsSharedWithParent(ignoreWords);
+			if (!stemmedWords.isEmpty()) {
+				final String key = makeKey(stemmedWords);
+				final String candKey = resolveKey(key, stemmedWords, clusters);
 
-		toRemove = new LinkedList<>();
-		Map<String, Set<SootClass>> errorAndExceptions = new HashMap<>();
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			if (entry.getKey().startsWith("exception;")){
-				if (!errorAndExceptions.containsKey("exception;")){
-					errorAndExceptions.put("exception;", new HashSet<>());
+				if (!clusters.containsKey(candKey)) {
+					clusters.put(key, new ArraySet<>());
 				}
 
-				errorAndExceptions.get("exception;").addAll(entry.getValue());
-				toRemove.add(entry.getKey());
-			} else if (entry.getKey().startsWith("error;")){
-				if (!errorAndExceptions.containsKey("error;")){
-					errorAndExceptions.put("error;", new HashSet<>());
-				}
+				clusters.get(candKey).add(tc.name);
 
-				errorAndExceptions.get("error;").addAll(entry.getValue());
-				toRemove.add(entry.getKey());
 			}
 		}
 
-		for (String s : toRemove) {
-			clusters.remove(s);
-		}
-
-		clusters.putAll(errorAndExceptions);
-
-		System.out.println("Total clusters (after exception coalescing): " + clusters.size());
-
-		int ttword = 0;
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			ttword += entry.getValue().size();
+		@Override
+		public Map<String, Set<String>> finish() {
+			// also merges all exceptions and all errors, see Coalescer.EXCEPTIONS_AND_ERRORS.
+			final Map<String, Set<String>> coalesced = coalescer.apply(clusters);
+			printRelabeledTerms(coalesced);
+			return coalesced;
 		}
-		System.out.println("Relabeled terms : " + ttword);
-		return clusters;
 	}
 
 	static boolean innerOrStaticNested(SootClass sc){
@@ -567,13 +1038,17 @@ public class ClusterGenerator {
 	}
 
 
-	static String resolveKey(String key, List<String> stemmedWords, SortedMap<String, Set<SootClass>> clusters){
-		List<String> reversed = reverse(stemmedWords.stream()).collect(Collectors.toList());
+	static <V> String resolveKey(String key, List<String> stemmedWords, SortedMap<String, V> clusters){
+		// the head word, i.e., the first word of the key.
+		final String head = stemmedWords.get(stemmedWords.size() - 1);
 
+		final ClustererEvents.ResolveKey event = ClustererEvents.resolveKey();
+		int candidates = 0;
 		double longest = 0.0d;
 		String candKey = BLANK;
-		Set<Map.Entry<String, Set<SootClass>>> matches = searchByPrefix(clusters, reversed.get(0)).entrySet();
-		for(Map.Entry<String, Set<SootClass>> entry : matches){
+		Set<Map.Entry<String, V>> matches = searchByPrefix(clusters, head).entrySet();
+		for(Map.Entry<String, V> entry : matches){
+			candidates++;
 			if (BLANK.equals(candKey)){
 				candKey = entry.getKey();
 				longest = RatcliffObershelp.similarity(key, candKey);
@@ -594,186 +1069,49 @@ public class ClusterGenerator {
 			}
 		}
 
+		if (event != null) {
+			event.key = key;
+			event.candidates = candidates;
+			event.bestScore = longest;
+			event.merged = !candKey.equals(key);
+			event.commit();
+		}
 		return candKey;
 	}
 
 
-	private static Map<String, Set<SootClass>> strategy3(Set<String> ignoreWords, Set<String> dict) {
-		SortedMap<String, Set<SootClass>> clusters = new TreeMap<>();
-
-		for (SootClass sc : getAllClasses()) {
-
-			if (innerOrStaticNested(sc)) {
-				// ignore nested classes
-				continue;
-			}
-
-			List<String> stemmedWords = splitIntoWords(sc.getJavaStyleName(), dict);
-
-			if (sc.resolvingLevel() >= SootClass.HIERARCHY && sc.hasSuperclass()
-					&& sc.getSuperclass().isApplicationClass()) {
-				List<String> stemmedParentWords = splitIntoWords(sc.getSuperclass().getJavaStyleName(), dict);
-				int sharedWords = 0;
-				for (String s : stemmedParentWords) {
-					if (stemmedWords.contains(s)) {
-						sharedWords++;
-					}
-				}
-				if (sharedWords > 0) {
-					stemmedWords.retainAll(stemmedParentWords);
-				}
-			}
-
-			stemmedWords.removeAll(ignoreWords);
-			if (!stemmedWords.isEmpty()) {
-				final String key = makeKey(stemmedWords);
-				if (!clusters.containsKey(key)) {
-					clusters.put(key, new ArraySet<>());
-				}
-
-				clusters.get(key).add(sc);
-			}
-		}
-
-		System.out.println("Total clusters: " + clusters.size());
-
-		List<String> toRemove = new LinkedList<String>();
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			if (entry.getValue().size() <= 1) {
-				toRemove.add(entry.getKey());
-			}
-		}
-		for (String s : toRemove) {
-			clusters.remove(s);
-		}
-
-		System.out.println("Total clusters >1: " + clusters.size());
-		int ttword = 0;
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			ttword += entry.getValue().size();
-		}
-		System.out.println("Relabeled terms : " + ttword);
-		return clusters;
+	private static Strategy strategy3(Set<String> ignoreWords, Coalescer coalescer) {
+		return new BucketStrategy(new TreeMap<String, Set<String>>(), coalescer, tc -> {
+			return tc.keyWordsSharedWithParent(ignoreWords);
+		});
 	}
 
-	private static Map<String, Set<SootClass>> strategy4(Set<String> ignoreWords, Set<String> dict) {
-		Map<String, Set<SootClass>> clusters = new LinkedHashMap<String, Set<SootClass>>();
-
-		for (SootClass sc : getAllClasses()) {
-
-			if (sc.getJavaStyleName().contains("$")) {
-				// ignore nested classes
-				continue;
-			}
-
-			List<String> stemmedWords = splitIntoWords(sc.getJavaStyleName(), dict);
-
-			if (sc.resolvingLevel() >= SootClass.HIERARCHY && sc.hasSuperclass()
-					&& sc.getSuperclass().isApplicationClass()) {
-				List<String> stemmedParentWords = splitIntoWords(sc.getSuperclass().getJavaStyleName(), dict);
-				int sharedWords = 0;
-				for (String s : stemmedParentWords) {
-					if (stemmedWords.contains(s)) {
-						sharedWords++;
-					}
-				}
-				if (sharedWords > 0) {
-					stemmedWords.retainAll(stemmedParentWords);
-				}
-			}
-
-			stemmedWords.removeAll(ignoreWords);
+	private static Strategy strategy4(Set<String> ignoreWords, Coalescer coalescer, Synonyms synonyms) {
+		return new BucketStrategy(new LinkedHashMap<String, Set<String>>(), coalescer, tc -> {
+			List<String> stemmedWords = tc.keyWordsSharedWithParent(ignoreWords);
 
 			List<String> minSynonyms = new LinkedList<String>();
 			for (String s : stemmedWords) {
-				String syn = findLowestSynonym(s);
+				String syn = synonyms.lowest(s);
 				if (!minSynonyms.contains(syn)) {
 					minSynonyms.add(syn);
 				}
 			}
-
-			if (!minSynonyms.isEmpty()) {
-				final String key = makeKey(minSynonyms);
-				if (!clusters.containsKey(key)) {
-					clusters.put(key, new ArraySet<SootClass>());
-				}
-				clusters.get(key).add(sc);
-			}
-		}
-
-		System.out.println("Total clusters: " + clusters.size());
-
-		List<String> toRemove = new LinkedList<String>();
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			if (entry.getValue().size() <= 1) {
-				toRemove.add(entry.getKey());
-			}
-		}
-		for (String s : toRemove) {
-			clusters.remove(s);
-		}
-
-		System.out.println("Total clusters >1: " + clusters.size());
-		int ttword = 0;
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			ttword += entry.getValue().size();
-		}
-		System.out.println("Relabeled terms : " + ttword);
-		return clusters;
+			return minSynonyms;
+		});
 	}
 
-	private static Map<String, Set<SootClass>> strategy1(Set<String> ignoreWords, Set<String> dict) {
-		Map<String, Set<SootClass>> clusters = new LinkedHashMap<String, Set<SootClass>>();
-
-		for (SootClass sc : getAllClasses()) {
-
-			if (innerOrStaticNested(sc)) {
-				// ignore nested classes
-				continue;
-			}
-
-			List<String> stemmedWords = splitIntoWords(sc.getJavaStyleName(), dict);
-			stemmedWords.removeAll(ignoreWords);
-			if (!stemmedWords.isEmpty()) {
-				final String key = makeKey(stemmedWords);
-				if (!clusters.containsKey(key)) {
-					clusters.put(key, new ArraySet<SootClass>());
-				}
-				clusters.get(key).add(sc);
-			}
-		}
-
-		System.out.println("Total clusters: " + clusters.size());
-
-		List<String> toRemove = new LinkedList<String>();
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			if (entry.getValue().size() <= 1) {
-				toRemove.add(entry.getKey());
-			}
-		}
-		for (String s : toRemove) {
-			clusters.remove(s);
-		}
-
-		System.out.println("Total clusters >1: " + clusters.size());
-		int ttword = 0;
-		for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
-			ttword += entry.getValue().size();
-		}
-		System.out.println("Relabeled terms : " + ttword);
-
-		return clusters;
+	private static Strategy strategy1(Set<String> ignoreWords, Coalescer coalescer) {
+		return new BucketStrategy(new LinkedHashMap<String, Set<String>>(), coalescer, tc -> {
+			return tc.keyWords(ignoreWords);
+		});
 	}
 
-	private static String makeKey(List<String> words) {
-		List<String> stemmedWords = new LinkedList<>(words);
-		if (!stemmedWords.isEmpty()){
-			stemmedWords = reverse(stemmedWords.stream()).collect(Collectors.toList());
-		}
-
+	static String makeKey(List<String> words) {
+		// the words in reverse order, without copying the list.
 		StringBuilder sb = new StringBuilder();
-		for (String s : stemmedWords) {
-			sb.append(s);
+		for (ListIterator<String> it = words.listIterator(words.size()); it.hasPrevious();) {
+			sb.append(it.previous());
 			sb.append(";");
 		}
 		return sb.toString();
@@ -794,7 +1132,7 @@ public class ClusterGenerator {
 		return shortStem;
 	}
 
-	private static List<String> splitIntoWords(final String identifierName, Set<String> dict) {
+	static List<String> splitIntoWords(final String identifierName, Set<String> dict) {
 		// split the came case first
 		List<String> words = new LinkedList<>();
 		for (String word : identifierName.split("(?<!(^|[A-Z]))(?=[A-Z])|(?<!^)(?=[A-Z][a-z])")) {
@@ -832,36 +1170,6 @@ public class ClusterGenerator {
 		return words;
 	}
 
-	private static Map<String, String> synmap = new HashMap<>();
-
-	/**
-	 * Gets all synonyms from wordnet, sorts them alphabetically, and picks the
-	 * smallest.
-	 * 
-	 * @param word
-	 * @return
-	 */
-	private static String findLowestSynonym(String word) {
-		if (!synmap.containsKey(word)) {
-			try {
-				String line;
-				Process p = Runtime.getRuntime().exec("python syn.py " + word);
-				BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()));
-				while ((line = input.readLine()) != null) {
-					synmap.put(word, line);
-				}
-				input.close();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			if (!synmap.containsKey(word)) {
-				synmap.put(word, word);
-			}
-		}
-		return synmap.get(word);
-	}
-
 	public static <V> SortedMap<String, V> searchByPrefix(SortedMap<String,V> baseMap, String prefix) {
 		if(prefix.length() > 0) {
 			char nextLetter = (char) (prefix.charAt(prefix.length() - 1) + 1);
@@ -0,0 +1,194 @@
+package clusterer;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+/**
+ * Java Flight Recorder events for the stages of a run, so a recording shows
+ * which stage, class, or word the time went to.
+ *
+ * The events are only created while a recording enables them, either the
+ * one started with -jfr or one started from outside, e.g., with jcmd
+ * JFR.start. Each factory method returns null otherwise, so call sites pay a
+ * single branch and no event objects are allocated:
+ *
+ * <pre>
+ * ClustererEvents.SootLoad event = ClustererEvents.sootLoad();
+ * ... // the measured work
+ * if (event != null) {
+ * 	event.applicationClasses = ...;
+ * 	event.commit();
+ * }
+ * </pre>
+ *
+ * The event types are registered with JFR when this class is initialized,
+ * so the JFR classes are loaded by the first event site that runs, with or
+ * without a recording.
+ */
+public final class ClustererEvents {
+
+	private static Recording recording = null;
+	private static File recordingFile = null;
+
+	private ClustererEvents() {
+		throw new Error("Utility class");
+	}
+
+	@Name("clusterer.SootLoad")
+	@Label("Soot Load")
+	@Category("Clusterer")
+	@Description("Loading class directories into a soot scene")
+	public static final class SootLoad extends Event {
+		@Label("Directories")
+		String directories;
+		@Label("Application Classes")
+		int applicationClasses;
+	}
+
+	@Name("clusterer.TokenizeBatch")
+	@Label("Tokenize Batch")
+	@Category("Clusterer")
+	@Description("Splitting the names of a batch of classes into words")
+	public static final class TokenizeBatch extends Event {
+		@Label("First Class")
+		String firstClass;
+		@Label("Classes")
+		int classes;
+		@Label("Tokenized Classes")
+		int tokenized;
+	}
+
+	@Name("clusterer.SynonymLookup")
+	@Label("Synonym Lookup")
+	@Category("Clusterer")
+	@Description("Looking up the lowest synonym of a word (strategy 4)")
+	public static final class SynonymLookup extends Event {
+		@Label("Word")
+		String word;
+		@Label("Cache Hit")
+		boolean cacheHit;
+	}
+
+	@Name("clusterer.ResolveKey")
+	@Label("Resolve Key")
+	@Category("Clusterer")
+	@Description("Scoring existing cluster keys as candidates for a new key (strategy 5)")
+	public static final class ResolveKey extends Event {
+		@Label("Key")
+		String key;
+		@Label("Candidates")
+		int candidates;
+		@Label("Best Score")
+		double bestScore;
+		@Label("Merged")
+		boolean merged;
+	}
+
+	@Name("clusterer.Output")
+	@Label("Output")
+	@Category("Clusterer")
+	@Description("Building or writing an output artifact")
+	public static final class Output extends Event {
+		@Label("Artifact")
+		String artifact;
+	}
+
+	private static final EventType SOOT_LOAD = EventType.getEventType(SootLoad.class);
+	private static final EventType TOKENIZE_BATCH = EventType.getEventType(TokenizeBatch.class);
+	private static final EventType SYNONYM_LOOKUP = EventType.getEventType(SynonymLookup.class);
+	private static final EventType RESOLVE_KEY = EventType.getEventType(ResolveKey.class);
+	private static final EventType OUTPUT = EventType.getEventType(Output.class);
+
+	/**
+	 * Records the events, along with the default JFR
+	 * events, until {@link #stopRecording()}.
+	 *
+	 * @param file
+	 *            where the recording is written.
+	 */
+	public static synchronized void startRecording(File file) {
+		try {
+			recording = new Recording(Configuration.getConfiguration("default"));
+		} catch (IOException | ParseException e) {
+			e.printStackTrace();
+			recording = new Recording();
+		}
+		recording.setName("clusterer");
+		recording.start();
+		recordingFile = file;
+	}
+
+	/**
+	 * Writes the recording, if one was started.
+	 */
+	public static synchronized void stopRecording() {
+		if (recording == null) {
+			return;
+		}
+		try {
+			recording.stop();
+			recording.dump(recordingFile.toPath());
+			System.out.println("Wrote flight recording to " + recordingFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			recording.close();
+			recording = null;
+		}
+	}
+
+	public static SootLoad sootLoad() {
+		if (!SOOT_LOAD.isEnabled()) {
+			return null;
+		}
+		SootLoad event = new SootLoad();
+		event.begin();
+		return event;
+	}
+
+	public static TokenizeBatch tokenizeBatch() {
+		if (!TOKENIZE_BATCH.isEnabled()) {
+			return null;
+		}
+		TokenizeBatch event = new TokenizeBatch();
+		event.begin();
+		return event;
+	}
+
+	public static SynonymLookup synonymLookup() {
+		if (!SYNONYM_LOOKUP.isEnabled()) {
+			return null;
+		}
+		SynonymLookup event = new SynonymLookup();
+		event.begin();
+		return event;
+	}
+
+	public static ResolveKey resolveKey() {
+		if (!RESOLVE_KEY.isEnabled()) {
+			return null;
+		}
+		ResolveKey event = new ResolveKey();
+		event.begin();
+		return event;
+	}
+
+	public static Output output() {
+		if (!OUTPUT.isEnabled()) {
+			return null;
+		}
+		Output event = new Output();
+		event.begin();
+		return event;
+	}
+}
@@ -0,0 +1,290 @@
+package clusterer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import clusterer.ClusterGenerator.Strategy;
+import clusterer.ClusterGenerator.TokenizedClass;
+import soot.SootClass;
+
+/**
+ * Runs tokenization and clustering as overlapping stages. Batches of classes
+ * are tokenized on a thread pool while the calling thread feeds the batches
+ * that are already done, in their original order, to all requested
+ * strategies. At most QUEUE_CAPACITY batches are in flight at any time.
+ * Finally, each strategy merges its clusters in a separate task.
+ *
+ * The result is the same as tokenizing all classes first and running the
+ * strategies one after another. If the clustering budget runs out, no more
+ * batches are started and the clusters hold the classes added so far.
+ */
+public final class ClusteringPipeline {
+
+	static final int BATCH_SIZE = 256;
+	static final int QUEUE_CAPACITY = 64;
+	/** how often a blocked feeder checks if the batches were cancelled. */
+	private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+	private ClusteringPipeline() {
+		throw new Error("Utility class");
+	}
+
+	/**
+	 * Runs a task in the background. Used to overlap independent stages,
+	 * e.g., loading the dictionary while soot loads the scene.
+	 */
+	public static <T> Future<T> async(Callable<T> task) {
+		ExecutorService executor = Executors.newSingleThreadExecutor(daemon("clusterer-async"));
+		try {
+			return executor.submit(task);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Waits for a future and rethrows its failure unchecked.
+	 */
+	public static <T> T join(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Tokenizes the classes and clusters them with each of the strategies.
+	 *
+	 * @param classes
+	 * @param dict
+	 * @param ignoreWords
+	 * @param strategies
+	 * @param context
+	 * @return the clusters of each strategy, in the order of the strategies.
+	 */
+	public static Map<Integer, Map<String, Set<String>>> run(Collection<SootClass> classes,
+			final Set<String> dict, Set<String> ignoreWords, List<Integer> strategies, RunContext context) {
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		// the workers read the scene of the calling thread, which may be
+		// loaded in a soot context of its own.
+		final ExecutorService tokenizers = Executors.newFixedThreadPool(threads,
+				SceneLoader.contextThreads("clusterer-tokenize"));
+		final Map<String, int[]> splitCache = new ConcurrentHashMap<>();
+		final Map<Integer, Strategy> running = newStrategies(strategies, ignoreWords, context);
+
+		// stage 1 and 2: tokenize batches in parallel, cluster them in order.
+		try {
+			forEachBatch(new ArrayList<>(classes), tokenizers, batch -> {
+				final ClustererEvents.TokenizeBatch event = ClustererEvents.tokenizeBatch();
+				List<TokenizedClass> tokenized = new ArrayList<>(batch.size());
+				for (SootClass sc : batch) {
+					TokenizedClass tc = ClusterGenerator.tokenize(sc, dict, splitCache, context.words);
+					if (tc != null) {
+						tokenized.add(tc);
+					}
+				}
+				if (event != null) {
+					event.firstClass = batch.get(0).getName();
+					event.classes = batch.size();
+					event.tokenized = tokenized.size();
+					event.commit();
+				}
+				return tokenized;
+			}, tokenized -> {
+				for (TokenizedClass tc : tokenized) {
+					for (Strategy s : running.values()) {
+						s.add(tc);
+					}
+				}
+			}, () -> context.budget.expired(Budget.Stage.CLUSTERS));
+		} finally {
+			tokenizers.shutdownNow();
+		}
+
+		// stage 3: merge the clusters of each strategy.
+		return merge(running);
+	}
+
+	/**
+	 * @param strategies
+	 * @param ignoreWords
+	 * @param context
+	 * @return a new instance of each strategy, in the order of the
+	 *         strategies.
+	 */
+	static Map<Integer, Strategy> newStrategies(List<Integer> strategies, Set<String> ignoreWords,
+			RunContext context) {
+		final Map<Integer, Strategy> running = new LinkedHashMap<>();
+		for (int strategy : strategies) {
+			running.put(strategy, ClusterGenerator.newStrategy(strategy, ignoreWords, context));
+		}
+		return running;
+	}
+
+	/**
+	 * Adds the classes to all strategies, in order, and stops early if the
+	 * clustering budget runs out.
+	 *
+	 * @param classes
+	 * @param running
+	 * @param budget
+	 */
+	static void addAll(List<TokenizedClass> classes, Map<Integer, Strategy> running, Budget budget) {
+		for (int i = 0; i < classes.size(); i++) {
+			if (i % BATCH_SIZE == 0 && budget.expired(Budget.Stage.CLUSTERS)) {
+				return;
+			}
+			for (Strategy s : running.values()) {
+				s.add(classes.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Merges the clusters of each strategy in a separate task, once all
+	 * classes were added to the strategies.
+	 *
+	 * @param running
+	 * @return the clusters of each strategy, in the order of the strategies.
+	 */
+	static Map<Integer, Map<String, Set<String>>> merge(Map<Integer, Strategy> running) {
+		final int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, running.size()));
+		final ExecutorService mergers = Executors.newFixedThreadPool(threads,
+				SceneLoader.contextThreads("clusterer-merge"));
+		final Map<Integer, Future<Map<String, Set<String>>>> merged = new LinkedHashMap<>();
+		for (Map.Entry<Integer, Strategy> entry : running.entrySet()) {
+			merged.put(entry.getKey(), mergers.submit(entry.getValue()::finish));
+		}
+		mergers.shutdown();
+		final Map<Integer, Map<String, Set<String>>> result = new LinkedHashMap<>();
+		for (Map.Entry<Integer, Future<Map<String, Set<String>>>> entry : merged.entrySet()) {
+			result.put(entry.getKey(), join(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the task on batches of BATCH_SIZE inputs on the pool, and hands
+	 * the results to the consumer on the calling thread, in the order of the
+	 * batches, as soon as they are done. The queue of batches is bounded, so
+	 * the feeder blocks if the consumer falls behind. If a task or the
+	 * consumer fails, the feeder stops and the queued batches are cancelled
+	 * before the failure is rethrown.
+	 *
+	 * @param input
+	 * @param pool
+	 * @param task
+	 * @param consumer
+	 */
+	static <I, O> void forEachBatch(final List<I> input, final ExecutorService pool,
+			final Function<List<I>, O> task, Consumer<O> consumer) {
+		forEachBatch(input, pool, task, consumer, () -> false);
+	}
+
+	/**
+	 * Like {@link #forEachBatch(List, ExecutorService, Function, Consumer)},
+	 * but checks before each batch if it should stop, e.g., because its
+	 * budget ran out. The batches that were started are still consumed.
+	 *
+	 * @param expired
+	 *            true if no more batches should be started.
+	 */
+	static <I, O> void forEachBatch(final List<I> input, final ExecutorService pool,
+			final Function<List<I>, O> task, Consumer<O> consumer, final BooleanSupplier expired) {
+		final BlockingQueue<Future<O>> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final Future<O> end = new CompletableFuture<>();
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		Future<?> feeder = async(() -> {
+			try {
+				for (int start = 0; start < input.size() && !expired.getAsBoolean(); start += BATCH_SIZE) {
+					final List<I> batch = input.subList(start, Math.min(input.size(), start + BATCH_SIZE));
+					final Future<O> next = pool.submit(() -> task.apply(batch));
+					if (!offer(batches, next, cancelled)) {
+						next.cancel(true);
+						break;
+					}
+				}
+			} finally {
+				// the consumer may have drained the queue before the last offer.
+				if (cancelled.get() || !offer(batches, end, cancelled)) {
+					cancelAll(batches);
+				}
+			}
+			return null;
+		});
+		boolean done = false;
+		try {
+			Future<O> next;
+			while ((next = batches.take()) != end) {
+				consumer.accept(join(next));
+			}
+			done = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			if (!done) {
+				cancelled.set(true);
+				cancelAll(batches);
+			}
+		}
+		join(feeder);
+	}
+
+	/**
+	 * Waits for space in the queue until the item is added or the batches
+	 * are cancelled.
+	 *
+	 * @return false if the batches were cancelled.
+	 */
+	private static <T> boolean offer(BlockingQueue<T> queue, T item, AtomicBoolean cancelled)
+			throws InterruptedException {
+		while (!cancelled.get()) {
+			if (queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static <O> void cancelAll(BlockingQueue<Future<O>> batches) {
+		Future<O> queued;
+		while ((queued = batches.poll()) != null) {
+			queued.cancel(true);
+		}
+	}
+
+	static ThreadFactory daemon(final String name) {
+		return r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		};
+	}
+}
@@ -0,0 +1,196 @@
+package clusterer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+
+import soot.Scene;
+
+/**
+ * Clusters class directories from within another program, without the
+ * command line and without writing files:
+ *
+ * <pre>
+ * ClusteringSession session = ClusteringSession.fromArgs("-dirs", "build/classes", "-cs", "3,5");
+ * ClusteringSession.Result result = session.cluster();
+ * Map&lt;String, List&lt;String&gt;&gt; clusters = result.clusters(3);
+ * </pre>
+ *
+ * A session owns its options and its synonym cache. Each call to
+ * {@link #cluster()} loads the classes into a soot context of its own,
+ * keeps the words of the class names in an arena of its own, and starts a
+ * new time budget, so sessions and calls can run concurrently in one JVM,
+ * and nothing of a call is kept after it returns. All sessions share one
+ * read-only dictionary.
+ *
+ * The output options (-out, -classinfo, -cfm, -wfm, -delta, -format) and
+ * -shards and -watch are ignored, results are returned instead.
+ */
+public final class ClusteringSession {
+
+	private final Options options;
+	private final List<Integer> strategies;
+	/** word -> lowest synonym, shared by all runs of this session. */
+	private final Map<String, String> synonymCache = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param options
+	 *            the options of the session, must not be changed afterwards.
+	 * @throws IllegalArgumentException
+	 *             if there are no directories, or an argument is malformed
+	 *             (see {@link Options#validate()}).
+	 */
+	public ClusteringSession(Options options) {
+		if (options.classDirList == null || options.classDirList.isEmpty()) {
+			throw new IllegalArgumentException("No input directories found.");
+		}
+		options.validate();
+		this.options = options;
+		this.strategies = options.getClusteringStrategies();
+	}
+
+	/**
+	 * @param args
+	 *            the same arguments as on the command line.
+	 * @return a session with its own options.
+	 * @throws CmdLineException
+	 *             if the arguments cannot be parsed.
+	 */
+	public static ClusteringSession fromArgs(String... args) throws CmdLineException {
+		final Options options = new Options();
+		new CmdLineParser(options).parseArgument(args);
+		return new ClusteringSession(options);
+	}
+
+	/**
+	 * @return the english dictionary, loaded once and shared by all sessions.
+	 */
+	public static Set<String> sharedDictionary() {
+		return SharedDictionary.DICTIONARY;
+	}
+
+	private static final class SharedDictionary {
+		static final Set<String> DICTIONARY = Collections.unmodifiableSet(ClusterGenerator.loadDictionary());
+	}
+
+	/**
+	 * Loads the class directories and runs all strategies of the session.
+	 *
+	 * @return the clusters of each strategy.
+	 */
+	public Result cluster() {
+		final RunContext context = new RunContext(options, synonymCache);
+		final PackageFilter filter = options.getPackageFilter();
+		final List<List<String>> dirs = Collections.singletonList(options.classDirList);
+		return SceneLoader.loadConcurrently(dirs, ".", filter, options.applicationOnly, shard -> {
+			Map<Integer, Map<String, Set<String>>> clusters = ClusteringPipeline.run(
+					ClusterGenerator.getAllClasses(filter, options.applicationOnly), sharedDictionary(),
+					ClusterGenerator.IGNORE_WORDS, strategies, context);
+			final Map<Integer, Map<String, List<String>>> names = new HashMap<Integer, Map<String, List<String>>>();
+			final Map<Integer, String> partial = new HashMap<Integer, String>();
+			for (int strategy : strategies) {
+				names.put(strategy, toNames(clusters.get(strategy)));
+				final String reason = context.partialReason(Budget.Stage.CLUSTERS, strategy);
+				if (reason != null) {
+					partial.put(strategy, reason);
+				}
+			}
+			// the soot context is reset after this, so keep names only.
+			return new Result(names, partial, FieldTypeIndex.build(Scene.v().getApplicationClasses()));
+		}).get(0);
+	}
+
+	private static Map<String, List<String>> toNames(Map<String, Set<String>> clusters) {
+		final Map<String, List<String>> names = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, Set<String>> entry : clusters.entrySet()) {
+			names.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+		}
+		return Collections.unmodifiableMap(names);
+	}
+
+	/**
+	 * The clusters of one call to {@link #cluster()}, as class names. Results
+	 * do not refer to any soot objects and are immutable.
+	 */
+	public static final class Result {
+
+		private final Map<Integer, Map<String, List<String>>> clusters;
+		private final Map<Integer, String> partialReasons;
+		private final FieldTypeIndex fields;
+
+		private Result(Map<Integer, Map<String, List<String>>> clusters, Map<Integer, String> partialReasons,
+				FieldTypeIndex fields) {
+			this.clusters = clusters;
+			this.partialReasons = partialReasons;
+			this.fields = fields;
+		}
+
+		/**
+		 * @param strategy
+		 * @return cluster label -> names of the classes in the cluster.
+		 * @throws IllegalArgumentException
+		 *             if the strategy was not run.
+		 */
+		public Map<String, List<String>> clusters(int strategy) {
+			final Map<String, List<String>> c = clusters.get(strategy);
+			if (c == null) {
+				throw new IllegalArgumentException("Strategy " + strategy + " was not run.");
+			}
+			return c;
+		}
+
+		/**
+		 * @param strategy
+		 * @return the clusters of the strategy, one at a time.
+		 */
+		public Stream<Cluster> stream(int strategy) {
+			return clusters(strategy).entrySet().stream().map(e -> new Cluster(e.getKey(), e.getValue()));
+		}
+
+		/**
+		 * @return the fields of each type in the application classes.
+		 */
+		public FieldTypeIndex fields() {
+			return fields;
+		}
+
+		/**
+		 * @param strategy
+		 * @return why the clusters of the strategy are partial, or null.
+		 */
+		public String partialReason(int strategy) {
+			return partialReasons.get(strategy);
+		}
+	}
+
+	public static final class Cluster {
+
+		private final String label;
+		private final List<String> types;
+
+		Cluster(String label, List<String> types) {
+			this.label = label;
+			this.types = types;
+		}
+
+		public String label() {
+			return label;
+		}
+
+		/**
+		 * @return the names of the classes in the cluster.
+		 */
+		public List<String> types() {
+			return types;
+		}
+	}
+}
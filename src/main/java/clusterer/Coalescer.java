@@ -0,0 +1,252 @@
+package clusterer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Post-processes the clusters of a strategy in a single pass: drops
+ * clusters with fewer than a minimum number of classes, and merges the
+ * clusters whose key starts with the prefix of a rule into the cluster of
+ * the rule's label. E.g., the rule "exception" merges "exception;io;" and
+ * "exception;runtime;" into "exception;". If the prefixes of several rules
+ * match, the longest wins.
+ *
+ * The rules are compiled into a trie over the characters of their prefixes,
+ * so matching a key costs one step per character, no matter how many rules
+ * there are. Clusters below the minimum size are dropped before they are
+ * merged.
+ *
+ * Rule files have one rule per line, "prefix" or "prefix -> label", where
+ * the prefix is a sequence of words as they appear in a cluster key, i.e.,
+ * head word first, separated by ';'. Without a label, clusters merge into
+ * the prefix. Empty lines and lines starting with '#' are ignored.
+ */
+public final class Coalescer {
+
+	/** The merging of exceptions and errors that strategy 5 always did. */
+	public static final List<Rule> EXCEPTIONS_AND_ERRORS = Collections
+			.unmodifiableList(Arrays.asList(new Rule("exception;", "exception;"), new Rule("error;", "error;")));
+
+	public static final class Rule {
+		final String prefix;
+		final String label;
+
+		public Rule(String prefix, String label) {
+			this.prefix = prefix;
+			this.label = label;
+		}
+
+		/**
+		 * @param line
+		 *            "prefix" or "prefix -> label".
+		 * @return
+		 * @throws IllegalArgumentException
+		 *             if the prefix is empty.
+		 */
+		public static Rule parse(String line) {
+			final int arrow = line.indexOf("->");
+			final String prefix = normalize(arrow < 0 ? line : line.substring(0, arrow));
+			final String label = arrow < 0 ? prefix : normalize(line.substring(arrow + 2));
+			if (prefix.isEmpty() || label.isEmpty()) {
+				throw new IllegalArgumentException("Not a coalescing rule: " + line);
+			}
+			return new Rule(prefix, label);
+		}
+
+		/** @return the words, lower case, each followed by ';' as in keys. */
+		private static String normalize(String words) {
+			final StringBuilder sb = new StringBuilder();
+			for (String word : words.trim().toLowerCase().split("[;\\s]+")) {
+				if (!word.isEmpty()) {
+					sb.append(word).append(';');
+				}
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public String toString() {
+			return prefix + " -> " + label;
+		}
+	}
+
+	private final int minSize;
+	private final String[] labels;
+	/** the edges of node n are edgeChars/edgeTargets[firstEdge[n]..firstEdge[n+1]), sorted by char. */
+	private final int[] firstEdge;
+	private final char[] edgeChars;
+	private final int[] edgeTargets;
+	/** the rule whose prefix ends at each node, or -1. */
+	private final int[] ruleAt;
+
+	/**
+	 * @param rules
+	 *            later rules replace earlier ones with the same prefix.
+	 * @param minSize
+	 *            clusters with fewer classes are dropped.
+	 */
+	public Coalescer(List<Rule> rules, int minSize) {
+		this.minSize = minSize;
+
+		// build the trie with one map per node, then flatten it into arrays.
+		final List<TreeMap<Character, Integer>> children = new ArrayList<TreeMap<Character, Integer>>();
+		final List<Integer> rulesOfNodes = new ArrayList<Integer>();
+		final List<String> ruleLabels = new ArrayList<String>();
+		children.add(new TreeMap<Character, Integer>());
+		rulesOfNodes.add(-1);
+		for (Rule rule : rules) {
+			int node = 0;
+			for (int i = 0; i < rule.prefix.length(); i++) {
+				Integer child = children.get(node).get(rule.prefix.charAt(i));
+				if (child == null) {
+					child = children.size();
+					children.add(new TreeMap<Character, Integer>());
+					rulesOfNodes.add(-1);
+					children.get(node).put(rule.prefix.charAt(i), child);
+				}
+				node = child;
+			}
+			if (rulesOfNodes.get(node) >= 0) {
+				ruleLabels.set(rulesOfNodes.get(node), rule.label);
+			} else {
+				rulesOfNodes.set(node, ruleLabels.size());
+				ruleLabels.add(rule.label);
+			}
+		}
+		labels = ruleLabels.toArray(new String[ruleLabels.size()]);
+		firstEdge = new int[children.size() + 1];
+		edgeChars = new char[children.size() - 1];
+		edgeTargets = new int[children.size() - 1];
+		ruleAt = new int[children.size()];
+		int edge = 0;
+		for (int node = 0; node < children.size(); node++) {
+			firstEdge[node] = edge;
+			ruleAt[node] = rulesOfNodes.get(node);
+			for (Map.Entry<Character, Integer> child : children.get(node).entrySet()) {
+				edgeChars[edge] = child.getKey();
+				edgeTargets[edge] = child.getValue();
+				edge++;
+			}
+		}
+		firstEdge[children.size()] = edge;
+	}
+
+	/**
+	 * Reads the rules of a rule file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if a line is not a rule.
+	 */
+	public static List<Rule> readRules(File file) throws IOException {
+		final List<Rule> rules = new ArrayList<Rule>();
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					rules.add(Rule.parse(line));
+				}
+			}
+		}
+		return rules;
+	}
+
+	/**
+	 * @param key
+	 * @return the label of the longest rule whose prefix starts the key, or
+	 *         null if no rule matches.
+	 */
+	String match(String key) {
+		int node = 0;
+		int rule = ruleAt[0];
+		for (int i = 0; i < key.length(); i++) {
+			node = child(node, key.charAt(i));
+			if (node < 0) {
+				break;
+			}
+			if (ruleAt[node] >= 0) {
+				rule = ruleAt[node];
+			}
+		}
+		return rule < 0 ? null : labels[rule];
+	}
+
+	private int child(int node, char c) {
+		int low = firstEdge[node];
+		int high = firstEdge[node + 1] - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (edgeChars[mid] < c) {
+				low = mid + 1;
+			} else if (edgeChars[mid] > c) {
+				high = mid - 1;
+			} else {
+				return edgeTargets[mid];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Drops the small clusters and merges the clusters that match a rule.
+	 * The sets of the given clusters may be reused and changed. The members
+	 * are usually classes, or qualified names for member clusters.
+	 *
+	 * @param clusters
+	 * @return the coalesced clusters, sorted by key if the given clusters
+	 *         are, otherwise in the order in which their keys first occur.
+	 */
+	public <T> Map<String, Set<T>> apply(Map<String, Set<T>> clusters) {
+		final Map<String, Set<T>> result = clusters instanceof SortedMap ? new TreeMap<String, Set<T>>()
+				: new LinkedHashMap<String, Set<T>>();
+		int dropped = 0;
+		int merged = 0;
+		for (Map.Entry<String, Set<T>> entry : clusters.entrySet()) {
+			if (entry.getValue().size() < minSize) {
+				dropped++;
+				continue;
+			}
+			final String label = labels.length == 0 ? null : match(entry.getKey());
+			if (label == null) {
+				final Set<T> existing = result.get(entry.getKey());
+				if (existing == null) {
+					result.put(entry.getKey(), entry.getValue());
+				} else {
+					existing.addAll(entry.getValue());
+				}
+				continue;
+			}
+			merged++;
+			Set<T> target = result.get(label);
+			if (target == null) {
+				target = new LinkedHashSet<T>();
+				result.put(label, target);
+			}
+			target.addAll(entry.getValue());
+		}
+		System.out.println("Total clusters: " + clusters.size());
+		System.out.println("Total clusters >" + (minSize - 1) + ": " + (clusters.size() - dropped));
+		if (labels.length > 0) {
+			System.out.println("Total clusters (after coalescing " + merged + "): " + result.size());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,220 @@
+package clusterer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import soot.RefType;
+import soot.SootClass;
+import soot.SootField;
+import soot.Type;
+
+/**
+ * Maps each type to all fields of that type that are declared in the
+ * application classes, e.g.:
+ *
+ * Vector3f -> [Body.position, Material.color, Ray.direction]
+ *
+ * Type, class, and field names are interned into a {@link NameArena} and
+ * fields are stored as ids in flat int arrays, so the index holds neither
+ * SootFields, nor Strings, nor one list per type. The fields of each class
+ * are collected in parallel.
+ */
+public final class FieldTypeIndex {
+
+	/** interned type, class, and field names */
+	private final NameArena names;
+	/** name ids of the types that have fields, in order of appearance */
+	private final int[] types;
+	/** the fields of types[t] are fieldsByType[typeOffsets[t]..typeOffsets[t+1]) */
+	private final int[] typeOffsets;
+	private final int[] fieldsByType;
+	/** name id of each field */
+	private final int[] fieldNames;
+	/** name id of the declaring class of each field */
+	private final int[] fieldDeclaringClass;
+
+	private FieldTypeIndex(NameArena names, int[] types, int[] typeOffsets, int[] fieldsByType, int[] fieldNames,
+			int[] fieldDeclaringClass) {
+		this.names = names;
+		this.types = types;
+		this.typeOffsets = typeOffsets;
+		this.fieldsByType = fieldsByType;
+		this.fieldNames = fieldNames;
+		this.fieldDeclaringClass = fieldDeclaringClass;
+	}
+
+	/**
+	 * The fields of one class: type key and name of each field.
+	 */
+	static final class ClassFields {
+		final String declaringClass;
+		final String[] typeKeys;
+		final String[] names;
+
+		ClassFields(String declaringClass, String[] typeKeys, String[] names) {
+			this.declaringClass = declaringClass;
+			this.typeKeys = typeKeys;
+			this.names = names;
+		}
+	}
+
+	/**
+	 * Builds the index over all fields of the given classes that are resolved
+	 * to at least SIGNATURES. Fields whose name starts with "this" are
+	 * ignored.
+	 *
+	 * @param classes
+	 * @return
+	 */
+	public static FieldTypeIndex build(Collection<SootClass> classes) {
+		final List<SootClass> resolved = classes.stream()
+				.filter(sc -> sc.resolvingLevel() >= SootClass.SIGNATURES)
+				.collect(Collectors.toList());
+		// only reads the resolved classes, so this is safe to do in parallel,
+		// on threads that see the scene of the calling thread.
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		final ExecutorService collectors = Executors.newFixedThreadPool(threads,
+				SceneLoader.contextThreads("clusterer-fields"));
+		try {
+			final List<Future<List<ClassFields>>> batches = new ArrayList<Future<List<ClassFields>>>();
+			for (int start = 0; start < resolved.size(); start += ClusteringPipeline.BATCH_SIZE) {
+				final List<SootClass> batch = resolved.subList(start,
+						Math.min(resolved.size(), start + ClusteringPipeline.BATCH_SIZE));
+				batches.add(collectors.submit(
+						() -> batch.stream().map(FieldTypeIndex::collectFields).collect(Collectors.toList())));
+			}
+			final List<ClassFields> perClass = new ArrayList<ClassFields>(resolved.size());
+			for (Future<List<ClassFields>> batch : batches) {
+				perClass.addAll(ClusteringPipeline.join(batch));
+			}
+			return fromClassFields(perClass);
+		} finally {
+			collectors.shutdownNow();
+		}
+	}
+
+	/**
+	 * Builds the index from fields that have already been collected, e.g.,
+	 * by another process.
+	 *
+	 * @param perClass
+	 *            the fields of each class.
+	 * @return
+	 */
+	static FieldTypeIndex fromClassFields(List<ClassFields> perClass) {
+		final NameArena names = new NameArena();
+		// slot + 1 of each name that is a type, 0 if it is not (yet) a type.
+		int[] typeSlots = new int[1024];
+		int[] types = new int[256];
+		int typeCount = 0;
+
+		int fieldCount = 0;
+		for (ClassFields cf : perClass) {
+			fieldCount += cf.names.length;
+		}
+		final int[] fieldNames = new int[fieldCount];
+		final int[] fieldDeclaringClass = new int[fieldCount];
+		final int[] fieldSlot = new int[fieldCount];
+
+		int field = 0;
+		for (ClassFields cf : perClass) {
+			final int declId = names.intern(cf.declaringClass);
+			for (int i = 0; i < cf.names.length; i++) {
+				final int typeId = names.intern(cf.typeKeys[i]);
+				if (typeId >= typeSlots.length) {
+					typeSlots = Arrays.copyOf(typeSlots, Math.max(2 * typeSlots.length, typeId + 1));
+				}
+				if (typeSlots[typeId] == 0) {
+					if (typeCount == types.length) {
+						types = Arrays.copyOf(types, 2 * typeCount);
+					}
+					types[typeCount++] = typeId;
+					typeSlots[typeId] = typeCount;
+				}
+				final int slot = typeSlots[typeId] - 1;
+				fieldNames[field] = names.intern(cf.names[i]);
+				fieldDeclaringClass[field] = declId;
+				fieldSlot[field] = slot;
+				field++;
+			}
+		}
+
+		final int[] typeOffsets = new int[typeCount + 1];
+		for (int f = 0; f < fieldCount; f++) {
+			typeOffsets[fieldSlot[f] + 1]++;
+		}
+		for (int t = 0; t < typeCount; t++) {
+			typeOffsets[t + 1] += typeOffsets[t];
+		}
+		final int[] fill = new int[typeCount];
+		final int[] fieldsByType = new int[fieldCount];
+		for (int f = 0; f < fieldCount; f++) {
+			final int slot = fieldSlot[f];
+			fieldsByType[typeOffsets[slot] + fill[slot]++] = f;
+		}
+
+		return new FieldTypeIndex(names, Arrays.copyOf(types, typeCount), typeOffsets, fieldsByType, fieldNames,
+				fieldDeclaringClass);
+	}
+
+	static ClassFields collectFields(SootClass sc) {
+		final List<String> typeKeys = new ArrayList<String>();
+		final List<String> fieldNames = new ArrayList<String>();
+		for (SootField sf : sc.getFields()) {
+			// ignore this referneces.
+			if (!sf.getName().startsWith("this")) {
+				typeKeys.add(typeKey(sf.getType()));
+				fieldNames.add(sf.getName());
+			}
+		}
+		return new ClassFields(sc.getName(), typeKeys.toArray(new String[typeKeys.size()]),
+				fieldNames.toArray(new String[fieldNames.size()]));
+	}
+
+	private static String typeKey(Type t) {
+		if (t instanceof RefType) {
+			// same as the name of the declaring class, but without resolving it.
+			return ((RefType) t).getClassName();
+		}
+		return t.toString();
+	}
+
+	/**
+	 * @return the number of types that have at least one field.
+	 */
+	public int typeCount() {
+		return types.length;
+	}
+
+	public String typeName(int type) {
+		return names.get(types[type]);
+	}
+
+	/**
+	 * @return the number of fields of the given type.
+	 */
+	public int fieldCount(int type) {
+		return typeOffsets[type + 1] - typeOffsets[type];
+	}
+
+	/**
+	 * @return the id of the i-th field of the given type.
+	 */
+	public int field(int type, int i) {
+		return fieldsByType[typeOffsets[type] + i];
+	}
+
+	public String fieldName(int field) {
+		return names.get(fieldNames[field]);
+	}
+
+	public String declaringClassName(int field) {
+		return names.get(fieldDeclaringClass[field]);
+	}
+}
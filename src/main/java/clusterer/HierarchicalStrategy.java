@@ -0,0 +1,321 @@
+package clusterer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import clusterer.ClusterGenerator.Strategy;
+import clusterer.ClusterGenerator.TokenizedClass;
+import soot.SootClass;
+import soot.util.ArraySet;
+
+/**
+ * Strategy 7: hierarchical agglomerative clustering of class names. Each
+ * distinct word list (as in strategy 1) is a sparse, normalized word vector,
+ * and clusters are merged bottom up by average linkage over cosine
+ * similarity, which gives a dendrogram of the class names.
+ *
+ * The merges are found with the nearest-neighbor-chain algorithm. Average
+ * linkage of normalized vectors only depends on the sum of the vectors of
+ * each cluster, so no distance matrix is needed: memory is linear in the
+ * number of words. Nearest neighbors are looked up through an inverted
+ * index from words to clusters, since clusters that share no word have
+ * similarity 0 and are never merged.
+ *
+ * The dendrogram is cut at each of the given distance levels, and every
+ * cluster of every level is emitted with the label "level:key", where key is
+ * the key of the first class in the cluster. The clusters of each level are
+ * coalesced on their keys, before the level is prepended, so that rules
+ * match as they do for the other strategies.
+ */
+public class HierarchicalStrategy implements Strategy {
+
+	private final Set<String> ignoreWords;
+	private final double[] levels;
+	private final Coalescer coalescer;
+
+	/** distinct key -> item */
+	private final Map<String, Integer> itemIds = new HashMap<String, Integer>();
+	private final List<String> itemKeys = new ArrayList<String>();
+	private final List<Set<String>> itemMembers = new ArrayList<Set<String>>();
+	private final List<int[]> itemWords = new ArrayList<int[]>();
+	private final Map<String, Integer> wordIds = new HashMap<String, Integer>();
+
+	/**
+	 * @param ignoreWords
+	 * @param levels
+	 *            cosine distances in (0, 1] at which the dendrogram is cut.
+	 * @param coalescer
+	 *            drops small clusters and merges clusters by rules.
+	 */
+	public HierarchicalStrategy(Set<String> ignoreWords, double[] levels, Coalescer coalescer) {
+		for (double level : levels) {
+			if (level <= 0 || level > 1) {
+				throw new IllegalArgumentException("Cluster levels must be in (0, 1]: " + level);
+			}
+		}
+		this.ignoreWords = ignoreWords;
+		this.levels = levels.clone();
+		Arrays.sort(this.levels);
+		this.coalescer = coalescer;
+	}
+
+	@Override
+	public void add(TokenizedClass tc) {
+		List<String> stemmedWords = tc.keyWords(ignoreWords);
+		if (stemmedWords.isEmpty()) {
+			return;
+		}
+		final String key = ClusterGenerator.makeKey(stemmedWords);
+		Integer item = itemIds.get(key);
+		if (item == null) {
+			item = itemKeys.size();
+			itemIds.put(key, item);
+			itemKeys.add(key);
+			itemMembers.add(new ArraySet<String>());
+			TreeSet<Integer> words = new TreeSet<Integer>();
+			for (String w : stemmedWords) {
+				Integer id = wordIds.get(w);
+				if (id == null) {
+					id = wordIds.size();
+					wordIds.put(w, id);
+				}
+				words.add(id);
+			}
+			int[] sorted = new int[words.size()];
+			int i = 0;
+			for (Integer w : words) {
+				sorted[i++] = w;
+			}
+			itemWords.add(sorted);
+		}
+		itemMembers.get(item).add(tc.name);
+	}
+
+	/** A sparse vector: sorted word ids and their weights. */
+	private static final class Vector {
+		final int[] words;
+		final double[] weights;
+
+		Vector(int[] words, double[] weights) {
+			this.words = words;
+			this.weights = weights;
+		}
+
+		double dot(Vector other) {
+			double sum = 0;
+			int i = 0, j = 0;
+			while (i < words.length && j < other.words.length) {
+				if (words[i] == other.words[j]) {
+					sum += weights[i++] * other.weights[j++];
+				} else if (words[i] < other.words[j]) {
+					i++;
+				} else {
+					j++;
+				}
+			}
+			return sum;
+		}
+
+		Vector plus(Vector other) {
+			int[] w = new int[words.length + other.words.length];
+			double[] v = new double[w.length];
+			int i = 0, j = 0, k = 0;
+			while (i < words.length || j < other.words.length) {
+				if (j == other.words.length || (i < words.length && words[i] < other.words[j])) {
+					w[k] = words[i];
+					v[k++] = weights[i++];
+				} else if (i == words.length || other.words[j] < words[i]) {
+					w[k] = other.words[j];
+					v[k++] = other.weights[j++];
+				} else {
+					w[k] = words[i];
+					v[k++] = weights[i++] + other.weights[j++];
+				}
+			}
+			return new Vector(Arrays.copyOf(w, k), Arrays.copyOf(v, k));
+		}
+	}
+
+	/** A merge of two clusters at a distance. */
+	private static final class Merge {
+		final int left, right;
+		final double distance;
+
+		Merge(int left, int right, double distance) {
+			this.left = left;
+			this.right = right;
+			this.distance = distance;
+		}
+	}
+
+	/**
+	 * Builds the dendrogram with the nearest-neighbor-chain algorithm.
+	 * Cluster ids 0..n-1 are the items, merged clusters get the following
+	 * ids.
+	 *
+	 * @return the merges, in the order they were found.
+	 */
+	private List<Merge> buildDendrogram() {
+		final int n = itemKeys.size();
+		final List<Vector> sums = new ArrayList<Vector>(2 * n);
+		final List<Integer> sizes = new ArrayList<Integer>(2 * n);
+		final List<Set<Integer>> index = new ArrayList<Set<Integer>>(wordIds.size());
+		for (int w = 0; w < wordIds.size(); w++) {
+			index.add(new HashSet<Integer>());
+		}
+		for (int i = 0; i < n; i++) {
+			final int[] words = itemWords.get(i);
+			final double[] weights = new double[words.length];
+			Arrays.fill(weights, 1.0d / Math.sqrt(words.length));
+			sums.add(new Vector(words, weights));
+			sizes.add(1);
+			for (int w : words) {
+				index.get(w).add(i);
+			}
+		}
+
+		final List<Merge> merges = new ArrayList<Merge>();
+		final boolean[] done = new boolean[2 * n];
+		final int[] chain = new int[2 * n];
+		int chainSize = 0;
+		int nextStart = 0;
+		while (true) {
+			if (chainSize == 0) {
+				while (nextStart < sums.size() && done[nextStart]) {
+					nextStart++;
+				}
+				if (nextStart == sums.size()) {
+					break;
+				}
+				chain[chainSize++] = nextStart;
+			}
+			final int a = chain[chainSize - 1];
+			final int previous = chainSize > 1 ? chain[chainSize - 2] : -1;
+
+			// nearest neighbor of a among the active clusters that share a word with it.
+			int b = -1;
+			double best = 0;
+			final Set<Integer> seen = new HashSet<Integer>();
+			for (int w : sums.get(a).words) {
+				for (int c : index.get(w)) {
+					if (c == a || !seen.add(c)) {
+						continue;
+					}
+					final double similarity = sums.get(a).dot(sums.get(c)) / ((double) sizes.get(a) * sizes.get(c));
+					if (similarity > best || (similarity == best && c == previous)) {
+						best = similarity;
+						b = c;
+					}
+				}
+			}
+
+			if (b < 0) {
+				// nothing left to merge with, a is a root of the dendrogram.
+				done[a] = true;
+				for (int w : sums.get(a).words) {
+					index.get(w).remove(a);
+				}
+				chainSize--;
+				continue;
+			}
+			if (b != previous) {
+				chain[chainSize++] = b;
+				continue;
+			}
+
+			// a and b are reciprocal nearest neighbors.
+			chainSize -= 2;
+			final int merged = sums.size();
+			final Vector sum = sums.get(a).plus(sums.get(b));
+			sums.add(sum);
+			sizes.add(sizes.get(a) + sizes.get(b));
+			done[a] = true;
+			done[b] = true;
+			for (int w : sums.get(a).words) {
+				index.get(w).remove(a);
+			}
+			for (int w : sums.get(b).words) {
+				index.get(w).remove(b);
+			}
+			for (int w : sum.words) {
+				index.get(w).add(merged);
+			}
+			// the vectors of merged clusters are not needed anymore.
+			sums.set(a, null);
+			sums.set(b, null);
+			merges.add(new Merge(a, b, Math.max(0, 1 - best)));
+		}
+		return merges;
+	}
+
+	@Override
+	public Map<String, Set<String>> finish() {
+		final int n = itemKeys.size();
+		final List<Merge> merges = buildDendrogram();
+		System.out.println("Dendrogram: " + n + " distinct names, " + merges.size() + " merges.");
+
+		// the first item of each cluster id, to union items level by level.
+		final int[] representative = new int[n + merges.size()];
+		for (int i = 0; i < n; i++) {
+			representative[i] = i;
+		}
+		for (int m = 0; m < merges.size(); m++) {
+			representative[n + m] = representative[merges.get(m).left];
+		}
+		final List<Merge> byDistance = new ArrayList<Merge>(merges);
+		byDistance.sort(Comparator.comparingDouble(m -> m.distance));
+
+		final int[] parent = new int[n];
+		for (int i = 0; i < n; i++) {
+			parent[i] = i;
+		}
+		final Map<String, Set<String>> coalesced = new LinkedHashMap<String, Set<String>>();
+		int next = 0;
+		for (double level : levels) {
+			while (next < byDistance.size() && byDistance.get(next).distance <= level) {
+				final Merge m = byDistance.get(next++);
+				final int l = find(parent, representative[m.left]);
+				final int r = find(parent, representative[m.right]);
+				// keep the smaller item as root, so labels use the first key.
+				parent[Math.max(l, r)] = Math.min(l, r);
+			}
+			final Map<Integer, Set<String>> components = new LinkedHashMap<Integer, Set<String>>();
+			for (int i = 0; i < n; i++) {
+				final int root = find(parent, i);
+				if (!components.containsKey(root)) {
+					components.put(root, new ArraySet<String>());
+				}
+				components.get(root).addAll(itemMembers.get(i));
+			}
+			final Map<String, Set<String>> clusters = new LinkedHashMap<String, Set<String>>();
+			for (Map.Entry<Integer, Set<String>> component : components.entrySet()) {
+				clusters.put(itemKeys.get(component.getKey()), component.getValue());
+			}
+			final String prefix = String.format(Locale.ROOT, "%.2f:", level);
+			System.out.println("Level " + prefix);
+			for (Map.Entry<String, Set<String>> cluster : coalescer.apply(clusters).entrySet()) {
+				coalesced.put(prefix + cluster.getKey(), cluster.getValue());
+			}
+		}
+
+		ClusterGenerator.printRelabeledTerms(coalesced);
+		return coalesced;
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+}
@@ -0,0 +1,242 @@
+package clusterer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+
+/**
+ * Clusters the names of methods or fields with the word based strategies 1
+ * to 5, e.g., getVelocity, velocity, and setVelocity end up in the cluster
+ * "velocity;".
+ *
+ * The classes are processed in batches as in {@link ClusteringPipeline}:
+ * the members of a batch are collected and their names split into words on
+ * a thread pool, while the calling thread clusters the batches that are
+ * already done, in the order of the classes. There are many more members
+ * than classes, but far fewer distinct member names, so each distinct name
+ * is split and given its key only once.
+ *
+ * A member name has no super class, so strategies 2 and 3 cluster the same
+ * way as strategy 1. Constructors, static initializers, and synthetic names
+ * (containing '$') are skipped. Finally, the clusters are coalesced like
+ * those of classes, with -minsize counting members and the -coalesce rules
+ * of the strategy.
+ */
+public final class MemberClustering {
+
+	public enum Kind {
+		METHODS, FIELDS
+	}
+
+	static final List<Integer> STRATEGIES = Collections.unmodifiableList(Arrays.asList(1, 2, 3, 4, 5));
+
+	private MemberClustering() {
+		throw new Error("Utility class");
+	}
+
+	/**
+	 * @param classes
+	 *            the classes whose members are clustered.
+	 * @param kind
+	 * @param dict
+	 * @param ignoreWords
+	 * @param strategies
+	 *            strategies other than 1 to 5 are skipped.
+	 * @param context
+	 * @return for each strategy, label -> declaring class and name of the
+	 *         members in the cluster (e.g., "a.Body.getVelocity"), sorted.
+	 */
+	public static Map<Integer, Map<String, List<String>>> cluster(List<SootClass> classes, final Kind kind,
+			final Set<String> dict, Set<String> ignoreWords, List<Integer> strategies, final RunContext context) {
+		final Map<Integer, NameStrategy> running = new LinkedHashMap<Integer, NameStrategy>();
+		for (int strategy : strategies) {
+			if (STRATEGIES.contains(strategy)) {
+				running.put(strategy, newStrategy(strategy, ignoreWords, context));
+			}
+		}
+		if (running.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, SceneLoader.contextThreads("clusterer-members"));
+		final Map<String, int[]> splitCache = new ConcurrentHashMap<String, int[]>();
+		try {
+			ClusteringPipeline.forEachBatch(classes, pool, batch -> collect(batch, kind, dict, splitCache, context),
+					members -> {
+						for (Member member : members) {
+							for (NameStrategy s : running.values()) {
+								s.add(member);
+							}
+						}
+					}, () -> context.budget.expired(Budget.Stage.MEMBERS));
+		} finally {
+			pool.shutdownNow();
+		}
+		System.out.println("Distinct " + kind.name().toLowerCase() + " names: " + splitCache.size());
+
+		final Map<Integer, Map<String, List<String>>> result = new LinkedHashMap<Integer, Map<String, List<String>>>();
+		for (Map.Entry<Integer, NameStrategy> entry : running.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().finish(context.coalescer(entry.getKey())));
+		}
+		return result;
+	}
+
+	/** A member name with its declaring class and its words. */
+	private static final class Member {
+		final String name;
+		final String declaringClass;
+		final int[] words;
+
+		Member(String name, String declaringClass, int[] words) {
+			this.name = name;
+			this.declaringClass = declaringClass;
+			this.words = words;
+		}
+	}
+
+	/**
+	 * @return the members of the batch in the order of the classes, once per
+	 *         class and name, e.g., only once for overloaded methods.
+	 */
+	private static List<Member> collect(List<SootClass> batch, Kind kind, Set<String> dict,
+			Map<String, int[]> splitCache, RunContext context) {
+		final List<Member> members = new ArrayList<Member>();
+		final Set<String> names = new HashSet<String>();
+		for (SootClass sc : batch) {
+			if (sc.resolvingLevel() < SootClass.SIGNATURES) {
+				continue;
+			}
+			names.clear();
+			if (kind == Kind.METHODS) {
+				for (SootMethod sm : sc.getMethods()) {
+					addMember(members, names, sm.getName(), sc, dict, splitCache, context);
+				}
+			} else {
+				for (SootField sf : sc.getFields()) {
+					addMember(members, names, sf.getName(), sc, dict, splitCache, context);
+				}
+			}
+		}
+		return members;
+	}
+
+	private static void addMember(List<Member> members, Set<String> names, String name, SootClass sc,
+			Set<String> dict, Map<String, int[]> splitCache, RunContext context) {
+		if (name.startsWith("<") || name.contains("$") || !names.add(name)) {
+			return;
+		}
+		members.add(new Member(name, sc.getName(),
+				ClusterGenerator.cachedSplit(name, dict, splitCache, context.words)));
+	}
+
+	private static NameStrategy newStrategy(int strategy, final Set<String> ignoreWords, RunContext context) {
+		switch (strategy) {
+		case 4:
+			final Synonyms synonyms = context.synonyms;
+			return new NameStrategy(new LinkedHashMap<String, Set<String>>(), false, context.words, words -> {
+				List<String> minSynonyms = new LinkedList<String>();
+				for (String s : words) {
+					if (ignoreWords.contains(s)) {
+						continue;
+					}
+					String syn = synonyms.lowest(s);
+					if (!minSynonyms.contains(syn)) {
+						minSynonyms.add(syn);
+					}
+				}
+				return minSynonyms;
+			});
+		case 5:
+			return new NameStrategy(new TreeMap<String, Set<String>>(), true, context.words,
+					words -> withoutIgnored(words, ignoreWords));
+		default:
+			return new NameStrategy(new LinkedHashMap<String, Set<String>>(), false, context.words,
+					words -> withoutIgnored(words, ignoreWords));
+		}
+	}
+
+	private static List<String> withoutIgnored(List<String> words, Set<String> ignoreWords) {
+		List<String> stemmedWords = new LinkedList<String>(words);
+		stemmedWords.removeAll(ignoreWords);
+		return stemmedWords;
+	}
+
+	/**
+	 * Clusters members by the key of their name, and, like strategy 5,
+	 * optionally merges a key into a similar existing one. The key of a
+	 * distinct name is computed when it first occurs, so all members with
+	 * that name end up in the same cluster.
+	 */
+	private static final class NameStrategy {
+		final Map<String, Set<String>> clusters;
+		final boolean resolve;
+		final NameArena words;
+		final Function<List<String>, List<String>> keyWords;
+		/** distinct name -> its key, or "" if it has no words to cluster by. */
+		final Map<String, String> keys = new HashMap<String, String>();
+
+		NameStrategy(Map<String, Set<String>> clusters, boolean resolve, NameArena words,
+				Function<List<String>, List<String>> keyWords) {
+			this.clusters = clusters;
+			this.resolve = resolve;
+			this.words = words;
+			this.keyWords = keyWords;
+		}
+
+		void add(Member member) {
+			String key = keys.get(member.name);
+			if (key == null) {
+				key = "";
+				final List<String> stemmedWords = keyWords.apply(words.getUnmodifiable(member.words));
+				if (!stemmedWords.isEmpty()) {
+					key = ClusterGenerator.makeKey(stemmedWords);
+					if (resolve) {
+						key = ClusterGenerator.resolveKey(key, stemmedWords, (SortedMap<String, Set<String>>) clusters);
+					}
+				}
+				keys.put(member.name, key);
+			}
+			if (key.isEmpty()) {
+				return;
+			}
+			Set<String> members = clusters.get(key);
+			if (members == null) {
+				members = new TreeSet<String>();
+				clusters.put(key, members);
+			}
+			members.add(member.declaringClass + "." + member.name);
+		}
+
+		/**
+		 * Coalesces the clusters and sorts the members of each.
+		 */
+		Map<String, List<String>> finish(Coalescer coalescer) {
+			final Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+			for (Map.Entry<String, Set<String>> entry : coalescer.apply(clusters).entrySet()) {
+				final List<String> members = new ArrayList<String>(entry.getValue());
+				Collections.sort(members);
+				result.put(entry.getKey(), members);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package clusterer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import clusterer.ClusterGenerator.Strategy;
+import clusterer.ClusterGenerator.TokenizedClass;
+import soot.SootClass;
+import soot.util.ArraySet;
+
+/**
+ * Strategy 6: approximate clustering by word set similarity. Uses the same
+ * words as strategy 3. Each cluster is represented by the word set of the
+ * class that started it. A class joins the cluster whose word set has the
+ * highest Jaccard similarity to its own, if that similarity is at least the
+ * threshold. Otherwise it starts a new cluster.
+ *
+ * Candidate clusters are found with MinHash signatures and locality
+ * sensitive hashing: the signature is split into bands, and only clusters
+ * that agree with the class on all rows of at least one band are compared.
+ * Each class is compared against at most bands * MAX_BUCKET_SIZE
+ * candidates, so the runtime is linear in the number of classes.
+ */
+public class MinHashStrategy implements Strategy {
+
+	/** Clusters beyond this many in one LSH bucket are not added to it. */
+	static final int MAX_BUCKET_SIZE = 64;
+
+	private static final long SEED = 0x5EEDL;
+	/** a Mersenne prime, larger than any hash value. */
+	private static final long PRIME = (1L << 61) - 1;
+
+	private final Set<String> ignoreWords;
+	private final double threshold;
+	private final int bands;
+	private final int rows;
+	private final Coalescer coalescer;
+	private final long[] hashA;
+	private final long[] hashB;
+
+	/** cluster key -> index into clusterWords/clusterMembers */
+	private final Map<String, Integer> clusterIds = new HashMap<String, Integer>();
+	private final List<String> clusterKeys = new ArrayList<String>();
+	private final List<Set<String>> clusterWords = new ArrayList<Set<String>>();
+	private final List<Set<String>> clusterMembers = new ArrayList<Set<String>>();
+	/** one table per band: band hash -> cluster ids */
+	private final List<Map<Long, List<Integer>>> bandTables;
+
+	/**
+	 * @param ignoreWords
+	 * @param threshold
+	 *            minimal Jaccard similarity for a class to join a cluster.
+	 * @param bands
+	 *            number of LSH bands.
+	 * @param rows
+	 *            number of MinHash values per band. More rows make candidates
+	 *            more similar, more bands find more candidates.
+	 * @param coalescer
+	 *            drops small clusters and merges clusters by rules.
+	 */
+	public MinHashStrategy(Set<String> ignoreWords, double threshold, int bands, int rows, Coalescer coalescer) {
+		if (threshold < 0 || threshold > 1 || bands < 1 || rows < 1) {
+			throw new IllegalArgumentException("Invalid MinHash parameters: threshold " + threshold + ", bands "
+					+ bands + ", rows " + rows);
+		}
+		this.ignoreWords = ignoreWords;
+		this.threshold = threshold;
+		this.bands = bands;
+		this.rows = rows;
+		this.coalescer = coalescer;
+
+		final Random rnd = new Random(SEED);
+		hashA = new long[bands * rows];
+		hashB = new long[bands * rows];
+		for (int i = 0; i < hashA.length; i++) {
+			hashA[i] = 1 + (rnd.nextLong() >>> 4) % (PRIME - 1);
+			hashB[i] = (rnd.nextLong() >>> 4) % PRIME;
+		}
+		bandTables = new ArrayList<Map<Long, List<Integer>>>(bands);
+		for (int b = 0; b < bands; b++) {
+			bandTables.add(new HashMap<Long, List<Integer>>());
+		}
+	}
+
+	@Override
+	public void add(TokenizedClass tc) {
+		List<String> stemmedWords = tc.keyWordsSharedWithParent(ignoreWords);
+		if (stemmedWords.isEmpty()) {
+			return;
+		}
+
+		final String key = ClusterGenerator.makeKey(stemmedWords);
+		Integer cluster = clusterIds.get(key);
+		if (cluster == null) {
+			final Set<String> words = new LinkedHashSet<String>(stemmedWords);
+			final long[] bandHashes = bandHashes(words);
+			cluster = mostSimilarCluster(words, bandHashes);
+			if (cluster == null) {
+				cluster = newCluster(key, words, bandHashes);
+			}
+			// remember the key, so classes with the same words skip the lookup.
+			clusterIds.put(key, cluster);
+		}
+		clusterMembers.get(cluster).add(tc.name);
+	}
+
+	private Integer mostSimilarCluster(Set<String> words, long[] bandHashes) {
+		Integer best = null;
+		double bestSimilarity = -1;
+		final Set<Integer> seen = new HashSet<Integer>();
+		for (int b = 0; b < bands; b++) {
+			final List<Integer> bucket = bandTables.get(b).get(bandHashes[b]);
+			if (bucket == null) {
+				continue;
+			}
+			for (Integer candidate : bucket) {
+				if (!seen.add(candidate)) {
+					continue;
+				}
+				final double similarity = jaccard(words, clusterWords.get(candidate));
+				if (similarity >= threshold && similarity > bestSimilarity) {
+					best = candidate;
+					bestSimilarity = similarity;
+				}
+			}
+		}
+		return best;
+	}
+
+	private int newCluster(String key, Set<String> words, long[] bandHashes) {
+		final int id = clusterKeys.size();
+		clusterKeys.add(key);
+		clusterWords.add(words);
+		clusterMembers.add(new ArraySet<String>());
+		for (int b = 0; b < bands; b++) {
+			List<Integer> bucket = bandTables.get(b).get(bandHashes[b]);
+			if (bucket == null) {
+				bucket = new ArrayList<Integer>(2);
+				bandTables.get(b).put(bandHashes[b], bucket);
+			}
+			if (bucket.size() < MAX_BUCKET_SIZE) {
+				bucket.add(id);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Computes the MinHash signature of the word set and combines the rows of
+	 * each band into one hash.
+	 */
+	long[] bandHashes(Set<String> words) {
+		final long[] signature = new long[bands * rows];
+		Arrays.fill(signature, Long.MAX_VALUE);
+		for (String word : words) {
+			final long x = word.hashCode() & 0xFFFFFFFFL;
+			for (int i = 0; i < signature.length; i++) {
+				final long h = mod(hashA[i] * x + hashB[i]);
+				if (h < signature[i]) {
+					signature[i] = h;
+				}
+			}
+		}
+		final long[] result = new long[bands];
+		for (int b = 0; b < bands; b++) {
+			long h = 17;
+			for (int r = 0; r < rows; r++) {
+				h = h * 31 + signature[b * rows + r];
+			}
+			result[b] = h;
+		}
+		return result;
+	}
+
+	private static long mod(long x) {
+		// x may have overflowed, only its low bits matter for the min hash.
+		return (x & PRIME) % PRIME;
+	}
+
+	static double jaccard(Set<String> a, Set<String> b) {
+		int shared = 0;
+		for (String s : a) {
+			if (b.contains(s)) {
+				shared++;
+			}
+		}
+		final int union = a.size() + b.size() - shared;
+		return union == 0 ? 0 : (double) shared / union;
+	}
+
+	@Override
+	public Map<String, Set<String>> finish() {
+		final Map<String, Set<String>> clusters = new LinkedHashMap<String, Set<String>>();
+		for (int i = 0; i < clusterKeys.size(); i++) {
+			clusters.put(clusterKeys.get(i), clusterMembers.get(i));
+		}
+		final Map<String, Set<String>> coalesced = coalescer.apply(clusters);
+		ClusterGenerator.printRelabeledTerms(coalesced);
+		return coalesced;
+	}
+}
@@ -0,0 +1,202 @@
+package clusterer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores each distinct name once, as Latin-1 bytes in one shared byte array,
+ * and identifies it by an int handle. Names with characters beyond Latin-1
+ * are stored as two bytes per character.
+ *
+ * Holding the handles instead of Strings keeps millions of duplicate names
+ * (words of class names, field and type names) off the heap: a handle costs
+ * 4 bytes and each distinct name about one byte per character, while every
+ * String copy costs an object header and a char array. {@link #get(int)}
+ * creates a short-lived String, so callers that only need a name for output
+ * or comparison do not retain it.
+ *
+ * Interning is synchronized. Looking up a handle is not, and may run
+ * concurrently with interning, as long as the handle was obtained from
+ * {@link #intern(String)} by a happens-before edge, e.g., through a
+ * concurrent map or a future.
+ */
+public final class NameArena {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** the bytes of all names, back to back. */
+	private volatile byte[] bytes = new byte[16 * INITIAL_CAPACITY];
+	/** per handle: start (high 32 bits), length in chars, and the wide flag (bit 0). */
+	private volatile long[] spans = new long[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	/** open addressing table of handle + 1, 0 if empty. */
+	private int[] table = new int[2 * INITIAL_CAPACITY];
+	private int size = 0;
+	private int byteSize = 0;
+
+	/**
+	 * @param name
+	 * @return the handle of the name, the same for equal names.
+	 */
+	public synchronized int intern(String name) {
+		final int hash = name.hashCode();
+		final int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		for (int entry = table[slot]; entry != 0; entry = table[slot]) {
+			if (hashes[entry - 1] == hash && matches(entry - 1, name)) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		final int handle = add(name, hash);
+		table[slot] = handle + 1;
+		if (2 * size > table.length) {
+			rehash();
+		}
+		return handle;
+	}
+
+	/**
+	 * @param names
+	 * @return the handles of the names, in the same order.
+	 */
+	public int[] intern(List<String> names) {
+		final int[] handles = new int[names.size()];
+		int i = 0;
+		for (String name : names) {
+			handles[i++] = intern(name);
+		}
+		return handles;
+	}
+
+	/**
+	 * @param handle
+	 * @return a new String with the name of the handle.
+	 */
+	public String get(int handle) {
+		final long span = spans[handle];
+		final byte[] data = bytes;
+		final int start = (int) (span >>> 32);
+		final int length = (int) (span & 0xFFFFFFFFL) >>> 1;
+		if ((span & 1) == 0) {
+			return new String(data, start, length, StandardCharsets.ISO_8859_1);
+		}
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (((data[start + 2 * i] & 0xFF) << 8) | (data[start + 2 * i + 1] & 0xFF));
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @param handles
+	 * @return a new, mutable list with the names of the handles.
+	 */
+	public List<String> get(int[] handles) {
+		final List<String> names = new ArrayList<String>(handles.length);
+		for (int handle : handles) {
+			names.add(get(handle));
+		}
+		return names;
+	}
+
+	/**
+	 * @param handles
+	 * @return an unmodifiable list with the names of the handles.
+	 */
+	public List<String> getUnmodifiable(int[] handles) {
+		return Collections.unmodifiableList(get(handles));
+	}
+
+	/**
+	 * @return the number of distinct names.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes used by the names.
+	 */
+	public synchronized int byteSize() {
+		return byteSize;
+	}
+
+	private boolean matches(int handle, String name) {
+		final long span = spans[handle];
+		final int start = (int) (span >>> 32);
+		final int length = (int) (span & 0xFFFFFFFFL) >>> 1;
+		if (length != name.length()) {
+			return false;
+		}
+		if ((span & 1) == 0) {
+			for (int i = 0; i < length; i++) {
+				if ((bytes[start + i] & 0xFF) != name.charAt(i)) {
+					return false;
+				}
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				final char c = (char) (((bytes[start + 2 * i] & 0xFF) << 8) | (bytes[start + 2 * i + 1] & 0xFF));
+				if (c != name.charAt(i)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private int add(String name, int hash) {
+		boolean wide = false;
+		for (int i = 0; i < name.length() && !wide; i++) {
+			wide = name.charAt(i) > 0xFF;
+		}
+		final int length = wide ? 2 * name.length() : name.length();
+		byte[] data = bytes;
+		if (byteSize + length > data.length) {
+			data = Arrays.copyOf(data, Math.max(2 * data.length, byteSize + length));
+		}
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (wide) {
+				data[byteSize + 2 * i] = (byte) (c >>> 8);
+				data[byteSize + 2 * i + 1] = (byte) c;
+			} else {
+				data[byteSize + i] = (byte) c;
+			}
+		}
+		// publish the bytes before the span that points to them.
+		bytes = data;
+
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, 2 * size);
+			spans = Arrays.copyOf(spans, 2 * size);
+		}
+		final long[] s = spans;
+		s[size] = ((long) byteSize << 32) | ((long) name.length() << 1) | (wide ? 1 : 0);
+		spans = s;
+		hashes[size] = hash;
+		byteSize += length;
+		return size++;
+	}
+
+	private void rehash() {
+		final int[] newTable = new int[2 * table.length];
+		final int mask = newTable.length - 1;
+		for (int handle = 0; handle < size; handle++) {
+			int slot = mix(hashes[handle]) & mask;
+			while (newTable[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			newTable[slot] = handle + 1;
+		}
+		table = newTable;
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
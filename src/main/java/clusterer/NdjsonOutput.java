@@ -0,0 +1,175 @@
+package clusterer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+
+/**
+ * Writers for -format ndjson. Each cluster, class info record, and field
+ * mapping is written as one self-contained json object on its own line, with
+ * the same keys as the json format, and flushed right away. Consumers can
+ * tail the files and parse them line by line. A partial output ends with
+ * a line {"partial":true,"reason":...}.
+ */
+public final class NdjsonOutput {
+
+	private NdjsonOutput() {
+		throw new Error("Utility class");
+	}
+
+	/**
+	 * @param clusters
+	 * @param outfile
+	 * @param partialReason
+	 *            if not null, a last line marks the clusters as partial.
+	 */
+	public static void writeClusters(Map<String, Set<String>> clusters, File outfile, String partialReason) {
+		try (PrintWriter writer = open(outfile)) {
+			for (Map.Entry<String, Set<String>> entry : clusters.entrySet()) {
+				final StringBuilder line = new StringBuilder("{\"types\":[");
+				String comma = "";
+				for (String type : entry.getValue()) {
+					line.append(comma).append(quote(type));
+					comma = ",";
+				}
+				line.append("],\"labels\":[").append(quote(entry.getKey())).append("]}");
+				writeLine(writer, line);
+			}
+			writePartial(writer, partialReason);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static void writeClassInfo(File outfile) {
+		try (PrintWriter writer = open(outfile)) {
+			for (SootClass sc : Scene.v().getApplicationClasses()) {
+				if (sc.resolvingLevel() < SootClass.SIGNATURES) {
+					continue;
+				}
+				final StringBuilder line = new StringBuilder("{\"name\":").append(quote(sc.getName()));
+				if (sc.hasSuperclass()) {
+					line.append(",\"super\":").append(quote(sc.getSuperclass().getName()));
+				}
+				line.append(",\"interfaces\":[");
+				String comma = "";
+				for (SootClass interf : sc.getInterfaces()) {
+					line.append(comma).append(quote(interf.getName()));
+					comma = ",";
+				}
+				line.append("],\"fields\":[");
+				comma = "";
+				for (SootField sf : sc.getFields()) {
+					line.append(comma).append("{\"name\":").append(quote(sf.getName())).append(",\"type\":")
+							.append(quote(sf.getType().toString())).append('}');
+					comma = ",";
+				}
+				line.append("],\"methods\":[");
+				comma = "";
+				for (SootMethod sm : sc.getMethods()) {
+					line.append(comma).append("{\"methodname\":").append(quote(sm.getSignature()))
+							.append(",\"returntype\":").append(quote(sm.getReturnType().toString()))
+							.append(",\"paramtypes\":[");
+					String comma2 = "";
+					for (Type t : sm.getParameterTypes()) {
+						line.append(comma2).append(quote(t.toString()));
+						comma2 = ",";
+					}
+					line.append("]}");
+					comma = ",";
+				}
+				line.append("]}");
+				writeLine(writer, line);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static void writeFields(FieldTypeIndex classToFields, File outfile) {
+		try (PrintWriter writer = open(outfile)) {
+			for (int type = 0; type < classToFields.typeCount(); type++) {
+				final StringBuilder line = new StringBuilder("{\"fields\":[");
+				String comma = "";
+				for (int i = 0; i < classToFields.fieldCount(type); i++) {
+					line.append(comma).append(quote(classToFields.fieldName(classToFields.field(type, i))));
+					comma = ",";
+				}
+				line.append("],\"class\":[").append(quote(classToFields.typeName(type))).append("]}");
+				writeLine(writer, line);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param wordToFields
+	 * @param index
+	 *            field name -> declaring class name.
+	 * @param outfile
+	 * @param partialReason
+	 *            if not null, a last line marks the mappings as partial.
+	 */
+	public static void writeMappings(List<Map<String, List<String>>> wordToFields, Map<String, String> index,
+			File outfile, String partialReason) {
+		try (PrintWriter writer = open(outfile)) {
+			for (Map<String, List<String>> map : wordToFields) {
+				for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+					final StringBuilder line = new StringBuilder("{\"fields\":[");
+					String comma = "";
+					for (String field : entry.getValue()) {
+						line.append(comma).append(
+								quote(index.containsKey(field) ? index.get(field) + "." + field : field));
+						comma = ",";
+					}
+					line.append("],\"label\":[").append(quote(entry.getKey())).append("]}");
+					writeLine(writer, line);
+				}
+			}
+			writePartial(writer, partialReason);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static PrintWriter open(File outfile) throws IOException {
+		return OutputFiles.writer(outfile);
+	}
+
+	private static void writePartial(PrintWriter writer, String partialReason) {
+		if (partialReason != null) {
+			writeLine(writer, "{\"partial\":true,\"reason\":" + quote(partialReason) + "}");
+		}
+	}
+
+	private static void writeLine(PrintWriter writer, CharSequence line) {
+		writer.append(line).append('\n');
+		writer.flush();
+	}
+
+	/** Quotes a string as json string, escaping quotes, backslashes, and control characters. */
+	static String quote(String s) {
+		final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -19,6 +19,10 @@
 
 package clusterer;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -47,8 +51,38 @@ public class Options {
 	@Option(name = "-cp", usage = "Classpath (optional)")
 	private String classpath=null;
 
-	@Option(name = "-cs", usage = "Clustering strategy between 1 and 4. Default is 3.")
-	public int clusteringStrategy = 3;
+	@Option(name = "-include", handler = StringArrayOptionHandler.class,
+			usage = "Only load bodies of and cluster classes in these packages, e.g., com.foo or com.foo.Abstract*.")
+	public List<String> includePackages = new LinkedList<String>();
+
+	@Option(name = "-exclude", handler = StringArrayOptionHandler.class,
+			usage = "Do not load bodies of or cluster classes in these packages. The longest matching pattern wins.")
+	public List<String> excludePackages = new LinkedList<String>();
+
+	@Option(name = "-apponly", usage = "Only cluster application classes and do not resolve the library hierarchy.")
+	public boolean applicationOnly = false;
+
+	@Option(name = "-cs", usage = "Clustering strategy between 1 and 7, a comma separated list of strategies (e.g., 1,2,3,5), "
+			+ "or 'all'. If more than one strategy is given, one output file per strategy is written. Default is 3.")
+	public String clusteringStrategy = "3";
+
+	@Option(name = "-lsht", usage = "Strategy 6: minimal Jaccard similarity of the word sets of a class and a cluster. Default is 0.5.")
+	public double minHashThreshold = 0.5;
+
+	@Option(name = "-lshb", usage = "Strategy 6: number of LSH bands. More bands find more candidate clusters. Default is 20.")
+	public int minHashBands = 20;
+
+	@Option(name = "-lshr", usage = "Strategy 6: number of MinHash values per LSH band. More rows make candidates more similar. Default is 3.")
+	public int minHashRows = 3;
+
+	@Option(name = "-levels", usage = "Strategy 7: comma separated cosine distances at which the dendrogram is cut. Default is 0.3,0.5,0.7.")
+	public String clusterLevels = "0.3,0.5,0.7";
+
+	@Option(name = "-coalesce", usage = "File with rules that merge clusters by the head words of their keys, one per line, e.g., 'exception' or 'list;array -> list'. Applied to all strategies.")
+	public String coalesceRulesFileName = null;
+
+	@Option(name = "-minsize", usage = "Drop clusters with fewer classes, or members for -methodclusters and -fieldclusters. Default is 2.")
+	public int minClusterSize = 2;
 
 	@Option(name = "-cfm", usage = "Produce json map from class name to list of fields of that type (experimental).")
 	public String classFieldMapFileName = null;
@@ -56,10 +90,174 @@ public class Options {
 	@Option(name = "-wfm", usage = "Produce json map from relevant word to list of field names (must be used with -cfm option).")
 	public String wordFieldMapFileName = null;
 
+	@Option(name = "-methodclusters", usage = "Also cluster method names with the strategies 1 to 5 of -cs and write the clusters to this file in the format of -wfm.")
+	public String methodClusterFileName = null;
+
+	@Option(name = "-fieldclusters", usage = "Also cluster field names with the strategies 1 to 5 of -cs and write the clusters to this file in the format of -wfm.")
+	public String fieldClusterFileName = null;
+
+	@Option(name = "-wfmcache", usage = "Cache the word field mappings of each type in this file, so types whose field names did not change skip the text mining in later runs.")
+	public String wordFieldCacheFileName = null;
+
+	@Option(name = "-wfmcachesize", usage = "Maximal number of types in the -wfmcache file. The least recently used types are evicted. Default is 10000.")
+	public int wordFieldCacheSize = 10000;
+
+	@Option(name = "-format", usage = "Output format: json (default), or ndjson to write each cluster, class info record, and field mapping as one json object per line.")
+	public String outputFormat = "json";
+
+	@Option(name = "-delta", usage = "Write the changes to the clusters since the previous run to this json file. The state of each run is kept in a .state file next to the -out file.")
+	public String deltaFileName = null;
+
+	@Option(name = "-watch", usage = "Keep running, and recluster and rewrite the outputs whenever class files in -dirs change. Only the changed classes are reloaded.")
+	public boolean watch = false;
+
+	@Option(name = "-debounce", usage = "With -watch: wait until no class file changed for this many milliseconds before reclustering. Default is 200.")
+	public long watchDebounceMillis = 200;
+
+	@Option(name = "-shards", usage = "Split -dirs into this many shards, load each in its own worker JVM, and merge the results. Default is 1.")
+	public int shards = 1;
+
+	@Option(name = "-workerXmx", usage = "Max heap of each worker JVM if -shards is used. Default: 2g")
+	public String workerHeap = "2g";
+
+	@Option(name = "-shardThreads", usage = "Load the shards of -shards in threads of this JVM, each with its own soot context, instead of in worker JVMs.")
+	public boolean shardThreads = false;
+
+	@Option(name = "-worker", hidden = true, usage = "Internal: write the partial results of one shard to this file.")
+	public String workerOutputFileName = null;
+
+	@Option(name = "-shardcp", hidden = true, usage = "Internal: classpath of a worker, i.e., the directories of all shards.")
+	public String shardClassPath = null;
+
+	@Option(name = "-budget", usage = "Time limits, e.g., 10m for the whole run, or total=10m,clusters=5m,members=1m,synonyms=90s,wfm=2m. Stages that run out of time stop early and their outputs are marked as partial.")
+	public String budget = null;
+
+	@Option(name = "-jfr", usage = "Record the Java Flight Recorder events of loading, tokenization, synonym lookups, key resolution, and outputs, with the default JFR settings, to this file.")
+	public String flightRecordingFileName = null;
+
 	@Option(name = "-v", usage = "Logging enabled.")
 	public boolean verbose = false;
 
 	
+	public static final List<Integer> ALL_STRATEGIES = Collections.unmodifiableList(Arrays.asList(1, 2, 3, 4, 5, 6, 7));
+
+	/**
+	 * Checks the arguments that are parsed on demand, so a malformed argument
+	 * is reported before any work is done rather than in the middle of a
+	 * run: -cs, -levels, -format, -budget, and the -coalesce file.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             with a message that names the malformed argument.
+	 */
+	public void validate() {
+		getClusteringStrategies();
+		getClusterLevels();
+		isNdjson();
+		getBudget();
+		getCoalescingRules();
+	}
+
+	/**
+	 * Parses the -cs argument.
+	 * 
+	 * @return the list of strategies to run, in the given order.
+	 * @throws IllegalArgumentException
+	 *             if a strategy is not a number or unknown.
+	 */
+	public List<Integer> getClusteringStrategies() {
+		if ("all".equalsIgnoreCase(clusteringStrategy.trim())) {
+			return ALL_STRATEGIES;
+		}
+		List<Integer> strategies = new LinkedList<Integer>();
+		for (String s : clusteringStrategy.split(",")) {
+			final int strategy;
+			try {
+				strategy = Integer.parseInt(s.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a clustering strategy: " + s);
+			}
+			if (!ALL_STRATEGIES.contains(strategy)) {
+				throw new IllegalArgumentException("Unknown clustering strategy: " + strategy);
+			}
+			if (!strategies.contains(strategy)) {
+				strategies.add(strategy);
+			}
+		}
+		return strategies;
+	}
+
+	/**
+	 * Parses the -levels argument.
+	 * 
+	 * @return the cut levels of strategy 7.
+	 * @throws IllegalArgumentException
+	 *             if a level is not a number.
+	 */
+	public double[] getClusterLevels() {
+		String[] parts = clusterLevels.split(",");
+		double[] levels = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			try {
+				levels[i] = Double.parseDouble(parts[i].trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a cluster level: " + parts[i]);
+			}
+		}
+		return levels;
+	}
+
+	/**
+	 * Parses the -format argument.
+	 * 
+	 * @return true if the outputs are written as ndjson.
+	 * @throws IllegalArgumentException
+	 *             if the format is neither json nor ndjson.
+	 */
+	public boolean isNdjson() {
+		if ("ndjson".equals(outputFormat)) {
+			return true;
+		}
+		if ("json".equals(outputFormat)) {
+			return false;
+		}
+		throw new IllegalArgumentException("Unknown output format: " + outputFormat);
+	}
+
+	/**
+	 * Parses the -budget argument.
+	 * 
+	 * @return the time limits of the run.
+	 * @throws IllegalArgumentException
+	 *             if the budget cannot be parsed.
+	 */
+	public Budget getBudget() {
+		return Budget.parse(budget);
+	}
+
+	/**
+	 * Reads the -coalesce file.
+	 * 
+	 * @return the coalescing rules for all strategies, empty if there is no
+	 *         file.
+	 * @throws IllegalArgumentException
+	 *             if the file cannot be read or contains a line that is not a
+	 *             rule.
+	 */
+	public List<Coalescer.Rule> getCoalescingRules() {
+		if (coalesceRulesFileName == null) {
+			return Collections.emptyList();
+		}
+		try {
+			return Coalescer.readRules(new File(coalesceRulesFileName));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read coalescing rules: " + e.getMessage());
+		}
+	}
+
+	public PackageFilter getPackageFilter() {
+		return PackageFilter.of(includePackages, excludePackages);
+	}
+
 	//================ singleton stuff =================
 	private static Options options;
 
@@ -74,7 +272,7 @@ public class Options {
 		return options;
 	}
 
-	private Options() {
+	Options() {
 	}
 
 }
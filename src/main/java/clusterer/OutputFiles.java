@@ -0,0 +1,55 @@
+package clusterer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Opens the output artifacts. Files whose name ends with ".gz" are gzip
+ * compressed on all cores with a {@link ParallelGzipOutputStream}, e.g.,
+ * -classinfo class_info.json.gz.
+ */
+public final class OutputFiles {
+
+	private OutputFiles() {
+		throw new Error("Utility class");
+	}
+
+	/**
+	 * @param file
+	 * @return true if the file is written gzip compressed.
+	 */
+	public static boolean isCompressed(File file) {
+		return file.getName().endsWith(".gz");
+	}
+
+	/**
+	 * @param file
+	 * @return a buffered stream to the file, compressing if the file name
+	 *         ends with ".gz".
+	 * @throws IOException
+	 */
+	public static OutputStream open(File file) throws IOException {
+		final OutputStream out = new FileOutputStream(file);
+		if (isCompressed(file)) {
+			return new ParallelGzipOutputStream(out);
+		}
+		return new BufferedOutputStream(out);
+	}
+
+	/**
+	 * @param file
+	 * @return a UTF-8 writer to the file, compressing if the file name ends
+	 *         with ".gz".
+	 * @throws IOException
+	 */
+	public static PrintWriter writer(File file) throws IOException {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(open(file), StandardCharsets.UTF_8)));
+	}
+}
@@ -0,0 +1,83 @@
+package clusterer;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Builds and writes independent output artifacts (clusters, class info,
+ * field maps) concurrently on a small pool of I/O threads, and reports how
+ * long each artifact took.
+ */
+public final class OutputPhase {
+
+	private static final int IO_THREADS = 4;
+
+	/** the writers read the scene, e.g., for the class info. */
+	private final ExecutorService io = Executors.newFixedThreadPool(IO_THREADS,
+			SceneLoader.contextThreads("clusterer-output"));
+	private final List<CompletableFuture<?>> pending = new LinkedList<CompletableFuture<?>>();
+	private final long start = System.currentTimeMillis();
+
+	/**
+	 * Computes an intermediate result that one or more artifacts depend on.
+	 */
+	public <T> CompletableFuture<T> build(final String name, final Supplier<T> builder) {
+		CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> timed(name, builder), io);
+		pending.add(future);
+		return future;
+	}
+
+	/**
+	 * Writes an artifact.
+	 */
+	public void write(final String artifact, final Runnable writer) {
+		pending.add(CompletableFuture.runAsync(() -> timed(artifact, () -> {
+			writer.run();
+			return null;
+		}), io));
+	}
+
+	/**
+	 * Writes an artifact as soon as its input is available.
+	 */
+	public <T> void write(final String artifact, CompletableFuture<T> input, final Consumer<T> writer) {
+		pending.add(input.thenAcceptAsync(value -> timed(artifact, () -> {
+			writer.accept(value);
+			return null;
+		}), io));
+	}
+
+	/**
+	 * Waits until all artifacts are written. Failures are reported, but do
+	 * not keep the other artifacts from being written.
+	 */
+	public void await() {
+		for (CompletableFuture<?> future : pending) {
+			try {
+				future.join();
+			} catch (CompletionException e) {
+				e.getCause().printStackTrace();
+			}
+		}
+		io.shutdown();
+		System.out.println("Output phase took " + (System.currentTimeMillis() - start) + "ms.");
+	}
+
+	private static <T> T timed(String name, Supplier<T> task) {
+		final ClustererEvents.Output event = ClustererEvents.output();
+		long taskStart = System.currentTimeMillis();
+		T result = task.get();
+		System.out.println("  " + name + ": " + (System.currentTimeMillis() - taskStart) + "ms");
+		if (event != null) {
+			event.artifact = name;
+			event.commit();
+		}
+		return result;
+	}
+}
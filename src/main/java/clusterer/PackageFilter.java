@@ -0,0 +1,163 @@
+package clusterer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which classes to load and cluster based on package patterns.
+ *
+ * A pattern such as "com.foo" or "com.foo.*" matches the package com.foo and
+ * all of its sub packages. A pattern ending in "*" without a dot, such as
+ * "com.foo.Abstract*", matches any class name with that prefix. If several
+ * patterns match a class, the longest one decides, so "-include com.foo
+ * -exclude com.foo.generated" keeps everything in com.foo except the
+ * generated code. A class that matches no pattern is accepted unless there
+ * are include patterns.
+ *
+ * The patterns are compiled into a character trie, so matching a class name
+ * is a single pass over its characters.
+ */
+public final class PackageFilter {
+
+	public static final PackageFilter ALL = new PackageFilter(Collections.<String> emptyList(),
+			Collections.<String> emptyList());
+
+	private static final byte NONE = 0;
+	private static final byte INCLUDE = 1;
+	private static final byte EXCLUDE = 2;
+
+	private static final class Node {
+		final Map<Character, Node> children = new HashMap<Character, Node>(4);
+		byte decision = NONE;
+		/** true if the pattern ended in '*' and may stop inside a name. */
+		boolean anyBoundary = false;
+	}
+
+	private final Node root = new Node();
+	private final boolean hasIncludes;
+	private final List<String> sootExcludes;
+
+	private PackageFilter(Collection<String> includes, Collection<String> excludes) {
+		for (String pattern : includes) {
+			add(pattern, INCLUDE);
+		}
+		for (String pattern : excludes) {
+			add(pattern, EXCLUDE);
+		}
+		this.hasIncludes = !includes.isEmpty();
+		this.sootExcludes = Collections.unmodifiableList(sootExcludes(includes, excludes));
+	}
+
+	/**
+	 * Translates the whole package patterns of the excludes to soot's
+	 * -exclude syntax. Name patterns, such as "com.foo.Abstract*", are left
+	 * to {@link #accepts(String)}, since soot would read them as packages. So
+	 * are packages with a more specific include beneath them, since soot
+	 * would exclude the included classes as well.
+	 */
+	private static List<String> sootExcludes(Collection<String> includes, Collection<String> excludes) {
+		final List<String> result = new LinkedList<String>();
+		for (String pattern : excludes) {
+			final String p = pattern.trim();
+			if (p.endsWith("*") && !p.endsWith(".*")) {
+				continue;
+			}
+			final String prefix = prefix(p) + ".";
+			boolean includedBeneath = false;
+			for (String include : includes) {
+				includedBeneath |= prefix(include.trim()).startsWith(prefix);
+			}
+			if (!includedBeneath) {
+				result.add(prefix + "*");
+			}
+		}
+		return result;
+	}
+
+	/** @return the pattern without a trailing ".*", "*", or ".". */
+	private static String prefix(String p) {
+		if (p.endsWith(".*")) {
+			return p.substring(0, p.length() - 2);
+		} else if (p.endsWith("*") || p.endsWith(".")) {
+			return p.substring(0, p.length() - 1);
+		}
+		return p;
+	}
+
+	/**
+	 * @param includes
+	 *            patterns of classes to keep, or null or empty to keep all.
+	 * @param excludes
+	 *            patterns of classes to drop, or null.
+	 * @return
+	 */
+	public static PackageFilter of(Collection<String> includes, Collection<String> excludes) {
+		if ((includes == null || includes.isEmpty()) && (excludes == null || excludes.isEmpty())) {
+			return ALL;
+		}
+		return new PackageFilter(includes == null ? Collections.<String> emptyList() : includes,
+				excludes == null ? Collections.<String> emptyList() : excludes);
+	}
+
+	private void add(String pattern, byte decision) {
+		final String trimmed = pattern.trim();
+		final boolean anyBoundary = trimmed.endsWith("*") && !trimmed.endsWith(".*");
+		final String p = prefix(trimmed);
+		Node node = root;
+		for (int i = 0; i < p.length(); i++) {
+			Node next = node.children.get(p.charAt(i));
+			if (next == null) {
+				next = new Node();
+				node.children.put(p.charAt(i), next);
+			}
+			node = next;
+		}
+		// exclusions win over inclusions of the same pattern.
+		if (node.decision != EXCLUDE) {
+			node.decision = decision;
+			node.anyBoundary = anyBoundary;
+		}
+	}
+
+	/**
+	 * @param className
+	 *            a fully qualified class name.
+	 * @return true if the class should be loaded and clustered.
+	 */
+	public boolean accepts(String className) {
+		if (this == ALL) {
+			return true;
+		}
+		byte decision = root.decision;
+		Node node = root;
+		for (int i = 0; i < className.length(); i++) {
+			node = node.children.get(className.charAt(i));
+			if (node == null) {
+				break;
+			}
+			if (node.decision != NONE) {
+				int end = i + 1;
+				if (node.anyBoundary || end == className.length() || className.charAt(end) == '.') {
+					decision = node.decision;
+				}
+			}
+		}
+		if (decision == NONE) {
+			return !hasIncludes;
+		}
+		return decision == INCLUDE;
+	}
+
+	/**
+	 * @return the exclude patterns of whole packages, in soot's -exclude
+	 *         syntax, e.g., "com.foo.*", which are safe to exclude from
+	 *         loading altogether.
+	 */
+	public List<String> sootExcludes() {
+		return sootExcludes;
+	}
+}
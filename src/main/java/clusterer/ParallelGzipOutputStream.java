@@ -0,0 +1,182 @@
+package clusterer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compresses on all cores, like pigz. The data is cut into blocks of
+ * BLOCK_SIZE bytes, each block is compressed into a complete gzip member of
+ * its own by a pool thread, and the members are written in order. A gzip
+ * file may consist of several members, so the result is read by gzip, zcat,
+ * and GZIPInputStream like any other gzip file.
+ *
+ * At most two blocks per thread are in flight, so the memory use does not
+ * depend on the size of the output. {@link #flush()} only writes blocks that
+ * are already compressed, and does not cut the current block short.
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+
+	static final int BLOCK_SIZE = 1 << 20;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService compressors = null;
+
+	private final OutputStream out;
+	private final int level;
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int count = 0;
+	private boolean empty = true;
+	private boolean closed = false;
+
+	/**
+	 * @param out
+	 *            receives the gzip members, closed with this stream.
+	 */
+	public ParallelGzipOutputStream(OutputStream out) {
+		this(out, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param out
+	 *            receives the gzip members, closed with this stream.
+	 * @param level
+	 *            the Deflater compression level.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int level) {
+		this.out = out;
+		this.level = level;
+	}
+
+	private static synchronized ExecutorService compressors() {
+		if (compressors == null) {
+			compressors = Executors.newFixedThreadPool(THREADS, ClusteringPipeline.daemon("clusterer-gzip"));
+		}
+		return compressors;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		block[count++] = (byte) b;
+		if (count == BLOCK_SIZE) {
+			submitBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = Math.min(len, BLOCK_SIZE - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == BLOCK_SIZE) {
+				submitBlock();
+			}
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		final byte[] data = block;
+		final int length = count;
+		pending.add(compressors().submit(() -> member(data, length, level)));
+		empty = false;
+		block = new byte[BLOCK_SIZE];
+		count = 0;
+		while (pending.size() > 2 * THREADS) {
+			writeNext();
+		}
+	}
+
+	private void writeNext() throws IOException {
+		try {
+			out.write(pending.poll().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		while (!pending.isEmpty() && pending.peek().isDone()) {
+			writeNext();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			// an empty stream still needs one (empty) member to be valid gzip.
+			if (count > 0 || empty) {
+				submitBlock();
+			}
+			while (!pending.isEmpty()) {
+				writeNext();
+			}
+		} finally {
+			for (Future<byte[]> future : pending) {
+				future.cancel(false);
+			}
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the data compressed as one gzip member (RFC 1952).
+	 */
+	static byte[] member(byte[] data, int length, int level) {
+		final ByteArrayOutputStream member = new ByteArrayOutputStream(length / 3 + 64);
+		// magic, deflate, no flags, no mtime, no extra flags, unknown OS.
+		member.write(0x1f);
+		member.write(0x8b);
+		member.write(Deflater.DEFLATED);
+		for (int i = 0; i < 6; i++) {
+			member.write(0);
+		}
+		member.write(0xff);
+
+		final Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			final byte[] buffer = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				final int n = deflater.deflate(buffer);
+				member.write(buffer, 0, n);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		writeIntLE(member, (int) crc.getValue());
+		writeIntLE(member, length);
+		return member.toByteArray();
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+}
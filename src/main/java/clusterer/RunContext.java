@@ -0,0 +1,86 @@
+package clusterer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of a single run: its options, its time budget, the synonym
+ * lookups made within that budget, the compiled coalescing rules, and the
+ * words of the class names.
+ * Passed down instead of being kept in static fields, so several runs can
+ * share a JVM.
+ */
+final class RunContext {
+
+	final Options options;
+	final Budget budget;
+	final Synonyms synonyms;
+	/** the words of the class names, see TokenizedClass. */
+	final NameArena words;
+	private final Coalescer coalescer;
+	/** the rules of -coalesce after the exception and error rules. */
+	private final Coalescer strategy5Coalescer;
+
+	/**
+	 * Starts the budget of a run.
+	 * 
+	 * @param options
+	 * @param synonymCache
+	 *            word -> lowest synonym, may be shared with other runs.
+	 * @throws IllegalArgumentException
+	 *             if the budget or the coalescing rules cannot be parsed.
+	 */
+	RunContext(Options options, Map<String, String> synonymCache) {
+		this(options, synonymCache, new NameArena());
+	}
+
+	/**
+	 * Starts the budget of a run that continues to use the words of earlier
+	 * runs, e.g., cached by their class names.
+	 * 
+	 * @param options
+	 * @param synonymCache
+	 *            word -> lowest synonym, may be shared with other runs.
+	 * @param words
+	 *            the arena of the cached words.
+	 * @throws IllegalArgumentException
+	 *             if the budget or the coalescing rules cannot be parsed.
+	 */
+	RunContext(Options options, Map<String, String> synonymCache, NameArena words) {
+		this.options = options;
+		this.budget = options.getBudget();
+		this.synonyms = new Synonyms(synonymCache, budget);
+		this.words = words;
+		final List<Coalescer.Rule> rules = options.getCoalescingRules();
+		this.coalescer = new Coalescer(rules, options.minClusterSize);
+		final List<Coalescer.Rule> strategy5Rules = new ArrayList<Coalescer.Rule>(Coalescer.EXCEPTIONS_AND_ERRORS);
+		strategy5Rules.addAll(rules);
+		this.strategy5Coalescer = new Coalescer(strategy5Rules, options.minClusterSize);
+	}
+
+	/**
+	 * @param strategy
+	 * @return drops the small clusters of the strategy and merges them by
+	 *         the rules. Strategy 5 also merges all exceptions and all
+	 *         errors.
+	 */
+	Coalescer coalescer(int strategy) {
+		return strategy == 5 ? strategy5Coalescer : coalescer;
+	}
+
+	/**
+	 * @param stage
+	 *            the stage that computed the clusters.
+	 * @param strategy
+	 * @return why the clusters of the strategy are partial, or null.
+	 */
+	String partialReason(Budget.Stage stage, int strategy) {
+		final String reason = budget.partialReason(stage);
+		if (reason != null) {
+			return reason;
+		}
+		// strategy 4 stops looking up synonyms if it runs out of time.
+		return strategy == 4 ? synonyms.partialReason() : null;
+	}
+}
@@ -1,12 +1,43 @@
 package clusterer;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import soot.ArrayType;
+import soot.G;
 import soot.PackManager;
+import soot.RefType;
 import soot.Scene;
 import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.CastExpr;
+import soot.jimple.FieldRef;
+import soot.jimple.InvokeExpr;
+import soot.jimple.NewArrayExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.NewMultiArrayExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.StaticInvokeExpr;
 import soot.options.Options;
 
 /**
@@ -18,6 +49,25 @@ import soot.options.Options;
 public final class SceneLoader {
 
 	public static void loadFromClassDirs(List<String> classDirs, String classPath) {
+		loadFromClassDirs(classDirs, classPath, PackageFilter.ALL, false);
+	}
+
+	/**
+	 * Loads the classes in classDirs.
+	 * 
+	 * @param classDirs
+	 * @param classPath
+	 * @param filter
+	 *            classes in packages excluded by the filter are only resolved
+	 *            to signatures, i.e., their bodies are never loaded.
+	 * @param applicationOnly
+	 *            if true, the JDK is not put on the classpath, so library
+	 *            classes become phantom classes and their hierarchy is never
+	 *            resolved.
+	 */
+	public static void loadFromClassDirs(List<String> classDirs, String classPath, PackageFilter filter,
+			boolean applicationOnly) {
+		final ClustererEvents.SootLoad event = ClustererEvents.sootLoad();
 		Options sootOpt = Options.v();
 		for (String s : classDirs) {
 			File classDir = new File(s);
@@ -30,7 +80,199 @@ public final class SceneLoader {
 		List<String> processDirs = new LinkedList<String>();
 		processDirs.addAll(classDirs);
 		sootOpt.set_process_dir(processDirs);
-		loadSootScene();
+
+		if (!filter.sootExcludes().isEmpty()) {
+			sootOpt.set_exclude(new LinkedList<String>(filter.sootExcludes()));
+			sootOpt.set_no_bodies_for_excluded(true);
+		}
+		loadSootScene(!applicationOnly);
+		if (event != null) {
+			event.directories = String.join(File.pathSeparator, classDirs);
+			event.applicationClasses = Scene.v().getApplicationClasses().size();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Loads each shard of class directories on its own thread, in its own
+	 * soot context, i.e., with its own G, Scene, and Options. Once a shard is
+	 * loaded, the collector is called on the same thread with the index of
+	 * the shard, so Scene.v() returns the scene of that shard. The context is
+	 * dropped afterwards, so only the collected results are kept. Threads
+	 * that the collector starts see the context of the shard if they are
+	 * made by {@link #contextThreads(String)}.
+	 * 
+	 * All other threads keep using soot's global context, before, during, and
+	 * after the call, and concurrent calls are allowed.
+	 * 
+	 * @param shards
+	 *            the class directories of each shard.
+	 * @param classPath
+	 *            the classpath of every shard, which usually contains the
+	 *            directories of all shards.
+	 * @param filter
+	 * @param applicationOnly
+	 * @param collector
+	 *            extracts the result of a loaded shard.
+	 * @return the results of the shards, in the order of the shards.
+	 */
+	public static <T> List<T> loadConcurrently(final List<List<String>> shards, final String classPath,
+			final PackageFilter filter, final boolean applicationOnly, final Function<Integer, T> collector) {
+		ThreadLocalContexts.install();
+		final ExecutorService loaders = Executors.newFixedThreadPool(Math.max(1, shards.size()),
+				ClusteringPipeline.daemon("clusterer-shard"));
+		try {
+			final List<Future<T>> futures = new ArrayList<Future<T>>();
+			for (int i = 0; i < shards.size(); i++) {
+				final int shard = i;
+				futures.add(loaders.submit(() -> {
+					final G previous = ThreadLocalContexts.enter(new G());
+					try {
+						long start = System.currentTimeMillis();
+						loadFromClassDirs(shards.get(shard), classPath, filter, applicationOnly);
+						System.out.println("Loaded shard " + shard + " (" + Scene.v().getApplicationClasses().size()
+								+ " application classes) in " + (System.currentTimeMillis() - start) + "ms.");
+						return collector.apply(shard);
+					} finally {
+						ThreadLocalContexts.exit(previous);
+					}
+				}));
+			}
+			final List<T> results = new ArrayList<T>();
+			for (Future<T> future : futures) {
+				results.add(ClusteringPipeline.join(future));
+			}
+			return results;
+		} finally {
+			loaders.shutdownNow();
+			// the getter is only removed once no shard uses its context anymore.
+			try {
+				loaders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			ThreadLocalContexts.uninstall();
+		}
+	}
+
+	/**
+	 * Makes daemon threads that use the soot context of the calling thread,
+	 * so they can read the scene of a shard while it is loaded in a context
+	 * of its own, see
+	 * {@link #loadConcurrently(List, String, PackageFilter, boolean, Function)}.
+	 * Outside of a shard, the threads use soot's global context as usual.
+	 * 
+	 * @param name
+	 *            the name of the threads.
+	 * @return
+	 */
+	static ThreadFactory contextThreads(String name) {
+		final G context = G.v();
+		final ThreadFactory daemon = ClusteringPipeline.daemon(name);
+		return r -> daemon.newThread(() -> {
+			final G previous = ThreadLocalContexts.enter(context);
+			try {
+				r.run();
+			} finally {
+				ThreadLocalContexts.exit(previous);
+			}
+		});
+	}
+
+	/**
+	 * Gives the threads that enter a context their own soot G. Soot looks up
+	 * all of its singletons (Scene, Options, PhaseOptions, ...) through
+	 * G.v(), so threads with different G objects can load classes
+	 * concurrently without sharing any soot state. All other threads see the
+	 * global G, as with soot's own getter.
+	 * 
+	 * The getter is installed while at least one concurrent load runs.
+	 * Afterwards, a getter that behaves like soot's own is installed again,
+	 * with the same global G.
+	 */
+	private static final class ThreadLocalContexts implements G.GlobalObjectGetter {
+
+		private static final ThreadLocal<G> CONTEXT = new ThreadLocal<G>();
+		private static int users = 0;
+		private static ThreadLocalContexts installed = null;
+
+		private volatile G global;
+
+		private ThreadLocalContexts(G global) {
+			this.global = global;
+		}
+
+		static synchronized void install() {
+			if (users++ == 0) {
+				installed = new ThreadLocalContexts(G.v());
+				G.setGlobalObjectGetter(installed);
+			}
+		}
+
+		static synchronized void uninstall() {
+			if (--users == 0) {
+				G.setGlobalObjectGetter(new GlobalContext(installed.global));
+				installed = null;
+			}
+		}
+
+		/**
+		 * @param context
+		 *            the G of the calling thread from now on.
+		 * @return the context the thread had before, or null.
+		 */
+		static G enter(G context) {
+			final G previous = CONTEXT.get();
+			CONTEXT.set(context);
+			return previous;
+		}
+
+		/**
+		 * @param previous
+		 *            as returned by {@link #enter(G)}.
+		 */
+		static void exit(G previous) {
+			if (previous == null) {
+				CONTEXT.remove();
+			} else {
+				CONTEXT.set(previous);
+			}
+		}
+
+		@Override
+		public G getG() {
+			final G context = CONTEXT.get();
+			return context != null ? context : global;
+		}
+
+		@Override
+		public void reset() {
+			if (CONTEXT.get() != null) {
+				CONTEXT.set(new G());
+			} else {
+				global = new G();
+			}
+		}
+	}
+
+	/** The same as soot's own getter: one G for all threads. */
+	private static final class GlobalContext implements G.GlobalObjectGetter {
+
+		private volatile G instance;
+
+		GlobalContext(G instance) {
+			this.instance = instance;
+		}
+
+		@Override
+		public G getG() {
+			return instance;
+		}
+
+		@Override
+		public void reset() {
+			instance = new G();
+		}
 	}
 
 	public static void loadFromClassDir(File classDir, String classPath) {
@@ -39,31 +281,379 @@ public final class SceneLoader {
 		loadFromClassDirs(processDirs, classPath);
 	}
 
+	/**
+	 * Packages that are not traversed by
+	 * {@link #runPointsToAnalysisOnDemand(SootClass, Collection)} unless
+	 * other exclusions are given.
+	 */
+	public static final List<String> DEFAULT_PTA_EXCLUDES = Collections
+			.unmodifiableList(Arrays.asList("java.*", "javax.*", "sun.*", "com.sun.*", "jdk.*"));
+
 	public static void runPointsToAnalysis(SootClass entryPoint) {
 		Options sootOpt = Options.v();
 		sootOpt.set_whole_program(true);
 		sootOpt.setPhaseOption("cg.spark", "on");
+		long start = System.currentTimeMillis();
+		int resolved = 0;
 		for (SootClass sc : new LinkedList<SootClass>(Scene.v().getClasses())) {
 			if (sc.resolvingLevel() == SootClass.SIGNATURES) {
 				Scene.v().forceResolve(sc.getName(), SootClass.BODIES);
+				resolved++;
 			} else if (sc.resolvingLevel() < SootClass.SIGNATURES) {
 				Scene.v().forceResolve(sc.getName(), SootClass.SIGNATURES);
+				resolved++;
+			}
+		}
+		System.out.println("Resolved " + resolved + " classes in " + (System.currentTimeMillis() - start) + "ms.");
+
+		runSpark(entryPoint);
+	}
+
+	/**
+	 * Like {@link #runPointsToAnalysis(SootClass)}, but instead of resolving
+	 * every class on the classpath upfront, only loads the bodies of the
+	 * methods that are reachable from the main method of the entry point.
+	 * Reachability is computed method by method with a rapid type analysis:
+	 * static and special calls reach their target, virtual and interface
+	 * calls reach the implementations in classes that are instantiated in a
+	 * reachable method, and using a class reaches its static initializer.
+	 * Only the bodies of these methods are built before SPARK runs, and
+	 * SPARK's on-the-fly call graph never leaves them. Classes in excluded
+	 * packages are only resolved to signatures, their methods are never
+	 * scanned, and soot is told not to load their bodies.
+	 * 
+	 * @param entryPoint
+	 *            the main class.
+	 * @param excludedPackages
+	 *            package prefixes such as "java.*" or "org.apache.", in
+	 *            addition to the exclusions of the loaded scene.
+	 */
+	public static void runPointsToAnalysisOnDemand(SootClass entryPoint, Collection<String> excludedPackages) {
+		Options sootOpt = Options.v();
+		sootOpt.set_whole_program(true);
+		sootOpt.setPhaseOption("cg.spark", "on");
+
+		// keep the exclusions of -exclude, see loadFromClassDirs.
+		List<String> sootExcludes = new LinkedList<String>(sootOpt.exclude());
+		List<String> prefixes = new LinkedList<String>();
+		for (String pattern : sootExcludes) {
+			prefixes.add(pattern.endsWith("*") ? pattern.substring(0, pattern.length() - 1) : pattern);
+		}
+		for (String pkg : excludedPackages) {
+			String prefix = pkg.endsWith("*") ? pkg.substring(0, pkg.length() - 1) : pkg;
+			if (!prefix.endsWith(".")) {
+				prefix += ".";
+			}
+			if (!sootExcludes.contains(prefix + "*")) {
+				prefixes.add(prefix);
+				sootExcludes.add(prefix + "*");
+			}
+		}
+		sootOpt.set_exclude(sootExcludes);
+		sootOpt.set_no_bodies_for_excluded(true);
+
+		long start = System.currentTimeMillis();
+		// the implicit entry points of the JVM, e.g., Thread.exit, are looked
+		// up by SPARK, so their classes need signatures.
+		for (String name : IMPLICIT_ENTRY_CLASSES) {
+			Scene.v().forceResolve(name, SootClass.SIGNATURES);
+		}
+		ReachableMethods reachable = new ReachableMethods(prefixes);
+		reachable.addEntryPoint(entryPoint);
+		reachable.process();
+		excludeBodies(prefixes);
+		System.out.println("Resolved " + reachable.bodyClasses + " classes to bodies and " + reachable.signatureClasses
+				+ " to signatures, and loaded the bodies of " + reachable.bodies + " reachable methods in "
+				+ (System.currentTimeMillis() - start) + "ms.");
+
+		runSpark(entryPoint);
+	}
+
+	/**
+	 * Does for the classes that were loaded before the exclusions were set
+	 * what soot does for excluded classes that are resolved afterwards: the
+	 * basic classes keep their bodies, all other excluded library classes
+	 * become phantom classes, so SPARK does not look into them.
+	 */
+	private static void excludeBodies(List<String> excludedPrefixes) {
+		for (SootClass sc : new ArrayList<SootClass>(Scene.v().getClasses())) {
+			if (sc.isPhantom() || sc.isApplicationClass() || !isExcluded(sc.getName(), excludedPrefixes)) {
+				continue;
+			}
+			if (Scene.v().getBasicClasses().contains(sc.getName())) {
+				if (sc.resolvingLevel() < SootClass.BODIES) {
+					Scene.v().forceResolve(sc.getName(), SootClass.BODIES);
+				}
+			} else {
+				sc.setPhantomClass();
+				if (sc.resolvingLevel() >= SootClass.SIGNATURES) {
+					for (SootMethod sm : sc.getMethods()) {
+						sm.setPhantom(true);
+					}
+				}
 			}
 		}
+	}
 
+	/**
+	 * The classes of the implicit entry points that SPARK adds in whole
+	 * program mode.
+	 */
+	private static final List<String> IMPLICIT_ENTRY_CLASSES = Collections.unmodifiableList(Arrays.asList(
+			"java.lang.System", "java.lang.Thread", "java.lang.ThreadGroup", "java.lang.ClassLoader",
+			"java.security.PrivilegedActionException", "java.lang.ref.Finalizer"));
+
+	/**
+	 * Runs the points-to analysis unless the cache file already holds the
+	 * results for the same input, i.e., the same class files, classpath,
+	 * entry point, and exclusions. Otherwise, the analysis results are written
+	 * to the cache file. Either way, the results can be read afterwards with
+	 * {@link CallGraphCache#open(File)}.
+	 * 
+	 * On a cache hit, SPARK is not run, so {@code Scene.v().getCallGraph()}
+	 * is empty and no points-to analysis is set. Callers must read the call
+	 * graph and points-to sets from {@link CallGraphCache#open(File)} rather
+	 * than from the scene.
+	 * 
+	 * @param entryPoint
+	 *            the main class.
+	 * @param excludedPackages
+	 *            if null, all classes are resolved upfront, otherwise see
+	 *            {@link #runPointsToAnalysisOnDemand(SootClass, Collection)}.
+	 * @param cacheFile
+	 * @return true if the cached results were reused and SPARK was not run.
+	 * @throws IOException
+	 */
+	public static boolean runPointsToAnalysisCached(SootClass entryPoint, Collection<String> excludedPackages,
+			File cacheFile) throws IOException {
+		final String fingerprint = CallGraphCache.fingerprint(Options.v().process_dir(), Options.v().soot_classpath(),
+				entryPoint.getName(), excludedPackages, Options.v().exclude(), Options.v().no_bodies_for_excluded());
+		if (CallGraphCache.isUpToDate(cacheFile, fingerprint)) {
+			System.out.println("Inputs unchanged, using call graph from " + cacheFile);
+			return true;
+		}
+		if (excludedPackages == null) {
+			runPointsToAnalysis(entryPoint);
+		} else {
+			runPointsToAnalysisOnDemand(entryPoint, excludedPackages);
+		}
+		CallGraphCache.write(cacheFile, fingerprint);
+		return false;
+	}
+
+	private static void runSpark(SootClass entryPoint) {
 		Options.v().set_main_class(entryPoint.getName());
+		long start = System.currentTimeMillis();
 		PackManager.v().runPacks();
+		System.out.println("Points-to analysis took " + (System.currentTimeMillis() - start) + "ms.");
 
 		// Happily use the callgraph
 		System.out.println(Scene.v().getCallGraph().size());
 	}
 
-	private static void loadSootScene() {
+	/**
+	 * Rapid type analysis: computes the methods reachable from an entry point
+	 * and builds their bodies. Classes are resolved as they are reached, to
+	 * bodies if they are not excluded and to signatures otherwise.
+	 */
+	private static final class ReachableMethods {
+		private final List<String> excludedPrefixes;
+		private final Set<SootClass> classes = new HashSet<SootClass>();
+		private final Set<SootClass> instantiated = new HashSet<SootClass>();
+		private final Set<SootMethod> reached = new HashSet<SootMethod>();
+		private final Deque<SootMethod> worklist = new ArrayDeque<SootMethod>();
+		/** the declaring class and sub signature of each virtual call. */
+		private final Set<List<Object>> virtualCalls = new HashSet<List<Object>>();
+		int bodies = 0;
+		/** the reached classes that are resolved to bodies and to signatures. */
+		int bodyClasses = 0;
+		int signatureClasses = 0;
+
+		ReachableMethods(List<String> excludedPrefixes) {
+			this.excludedPrefixes = excludedPrefixes;
+		}
+
+		void addEntryPoint(SootClass entryPoint) {
+			addClass(entryPoint);
+			if (entryPoint.declaresMethod("void main(java.lang.String[])")) {
+				addMethod(entryPoint.getMethod("void main(java.lang.String[])"));
+			} else {
+				for (SootMethod sm : new ArrayList<SootMethod>(entryPoint.getMethods())) {
+					addMethod(sm);
+				}
+			}
+		}
+
+		void process() {
+			while (!worklist.isEmpty()) {
+				SootMethod sm = worklist.poll();
+				bodies++;
+				for (ValueBox vb : sm.retrieveActiveBody().getUseAndDefBoxes()) {
+					scan(vb.getValue());
+				}
+			}
+		}
+
+		private void scan(Value v) {
+			if (v instanceof InvokeExpr) {
+				SootMethodRef ref = ((InvokeExpr) v).getMethodRef();
+				SootClass declaring = ref.getDeclaringClass();
+				addClass(declaring);
+				if (v instanceof StaticInvokeExpr || v instanceof SpecialInvokeExpr) {
+					SootMethod target = dispatch(declaring, ref.getSubSignature().getString());
+					if (target != null) {
+						addMethod(target);
+					}
+				} else if (virtualCalls.add(Arrays.<Object> asList(declaring, ref.getSubSignature().getString()))) {
+					for (SootClass receiver : new ArrayList<SootClass>(instantiated)) {
+						addVirtualTarget(receiver, declaring, ref.getSubSignature().getString());
+					}
+				}
+			} else if (v instanceof FieldRef) {
+				addClass(((FieldRef) v).getFieldRef().declaringClass());
+			} else if (v instanceof NewExpr) {
+				instantiate(((NewExpr) v).getBaseType().getSootClass());
+			} else {
+				SootClass referenced = referencedClass(v);
+				if (referenced != null) {
+					addClass(referenced);
+				}
+			}
+		}
+
+		private void instantiate(SootClass sc) {
+			addClass(sc);
+			if (!instantiated.add(sc)) {
+				return;
+			}
+			for (List<Object> call : new ArrayList<List<Object>>(virtualCalls)) {
+				addVirtualTarget(sc, (SootClass) call.get(0), (String) call.get(1));
+			}
+			// started threads and finalizers are called by the JVM.
+			if (Scene.v().containsClass("java.lang.Runnable")) {
+				addVirtualTarget(sc, Scene.v().getSootClass("java.lang.Runnable"), "void run()");
+			}
+			addVirtualTarget(sc, Scene.v().getObjectType().getSootClass(), "void finalize()");
+		}
+
+		private void addVirtualTarget(SootClass receiver, SootClass declaring, String subSignature) {
+			if (isSubtype(receiver, declaring)) {
+				SootMethod target = dispatch(receiver, subSignature);
+				if (target != null) {
+					addMethod(target);
+				}
+			}
+		}
+
+		/**
+		 * Resolves the class, its super types, and its outer class, and
+		 * reaches its static initializer.
+		 */
+		private void addClass(SootClass sc) {
+			if (!classes.add(sc)) {
+				return;
+			}
+			final boolean excluded = isExcluded(sc.getName(), excludedPrefixes);
+			final int level = excluded ? SootClass.SIGNATURES : SootClass.BODIES;
+			if (!sc.isPhantom()) {
+				if (sc.resolvingLevel() < level) {
+					Scene.v().forceResolve(sc.getName(), level);
+				}
+				if (excluded) {
+					signatureClasses++;
+				} else {
+					bodyClasses++;
+				}
+			}
+			// method lookups walk up the hierarchy, so super types need signatures.
+			if (sc.hasSuperclass()) {
+				addClass(sc.getSuperclass());
+			}
+			for (SootClass itf : new ArrayList<SootClass>(sc.getInterfaces())) {
+				addClass(itf);
+			}
+			if (sc.hasOuterClass()) {
+				addClass(sc.getOuterClass());
+			}
+			if (!sc.isPhantom() && sc.declaresMethod(SootMethod.staticInitializerName)) {
+				addMethod(sc.getMethodByName(SootMethod.staticInitializerName));
+			}
+		}
+
+		private void addMethod(SootMethod sm) {
+			if (reached.add(sm) && sm.isConcrete() && !sm.isPhantom()
+					&& !isExcluded(sm.getDeclaringClass().getName(), excludedPrefixes)) {
+				worklist.add(sm);
+			}
+		}
+
+		/**
+		 * @return the method with the sub signature in the class or its
+		 *         closest super class, or null.
+		 */
+		private static SootMethod dispatch(SootClass sc, String subSignature) {
+			for (SootClass c = sc; c != null; c = c.hasSuperclass() ? c.getSuperclass() : null) {
+				if (c.isPhantom()) {
+					return null;
+				}
+				if (c.declaresMethod(subSignature)) {
+					SootMethod sm = c.getMethod(subSignature);
+					return sm.isAbstract() ? null : sm;
+				}
+			}
+			return null;
+		}
+
+		private boolean isSubtype(SootClass sc, SootClass type) {
+			if (sc == type) {
+				return true;
+			}
+			addClass(sc);
+			if (sc.hasSuperclass() && isSubtype(sc.getSuperclass(), type)) {
+				return true;
+			}
+			for (SootClass itf : sc.getInterfaces()) {
+				if (isSubtype(itf, type)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static SootClass referencedClass(Value v) {
+		Type t = null;
+		if (v instanceof NewArrayExpr) {
+			t = ((NewArrayExpr) v).getBaseType();
+		} else if (v instanceof NewMultiArrayExpr) {
+			t = ((NewMultiArrayExpr) v).getBaseType().baseType;
+		} else if (v instanceof CastExpr) {
+			t = ((CastExpr) v).getCastType();
+		}
+		if (t instanceof ArrayType) {
+			t = ((ArrayType) t).baseType;
+		}
+		if (t instanceof RefType) {
+			return ((RefType) t).getSootClass();
+		}
+		return null;
+	}
+
+	private static boolean isExcluded(String className, List<String> excludedPrefixes) {
+		for (String prefix : excludedPrefixes) {
+			if (className.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void loadSootScene(boolean prependClasspath) {
 		Options sootOpt = Options.v();
 		// general soot options
 		sootOpt.set_keep_line_number(true);
 		sootOpt.set_allow_phantom_refs(true);
-		sootOpt.set_prepend_classpath(true); // -pp
+		sootOpt.set_prepend_classpath(prependClasspath); // -pp
 		sootOpt.set_output_format(Options.output_format_none);
 		sootOpt.set_src_prec(Options.src_prec_class);
 
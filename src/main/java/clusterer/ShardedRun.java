@@ -0,0 +1,619 @@
+package clusterer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import clusterer.ClusterGenerator.Strategy;
+import clusterer.ClusterGenerator.TokenizedClass;
+import clusterer.FieldTypeIndex.ClassFields;
+import soot.Scene;
+import soot.SootClass;
+
+/**
+ * Runs the clusterer on several shards of the input directories, so loading
+ * uses all cores. The shards are either loaded in separate worker JVMs, so
+ * each heap only holds one shard, or in threads of this JVM, each with its
+ * own soot context (-shardThreads).
+ *
+ * The coordinator splits -dirs into shards. Each shard is loaded with all
+ * directories on the classpath, so the hierarchy still resolves, and its
+ * classes are tokenized and the fields of its application classes are
+ * collected. Workers write these to a binary partial result. The reducer
+ * then merges the shard results and runs the strategies and writers on
+ * them.
+ *
+ * The merged classes, fields, and class info are put in the order of a
+ * single-process run (see {@link Position}), so the outputs are the same
+ * as those of one, including the order dependent clusters of strategy 5.
+ * Only library classes, which are clustered without -apponly, follow in
+ * the order of the shards instead of the order in which soot resolved
+ * them.
+ */
+public final class ShardedRun {
+
+	private static final int MAGIC = 0x434C5350;
+	private static final int VERSION = 1;
+	/** the first name of a class info entry is the name of the class. */
+	private static final Pattern CLASS_NAME = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]*)\"");
+
+	private ShardedRun() {
+		throw new Error("Utility class");
+	}
+
+	/** The words of one class as computed by a shard. */
+	private static final class ClassRecord {
+		final String name;
+		final boolean application;
+		/** handles into the word arena of the run */
+		final int[] words;
+		/** null if the class has no resolved super class. */
+		final String parentName;
+		final boolean parentApplication;
+		final int[] parentWords;
+
+		ClassRecord(String name, boolean application, int[] words, String parentName,
+				boolean parentApplication, int[] parentWords) {
+			this.name = name;
+			this.application = application;
+			this.words = words;
+			this.parentName = parentName;
+			this.parentApplication = parentApplication;
+			this.parentWords = parentWords;
+		}
+	}
+
+	/**
+	 * The position of a class in a single-process run. Soot loads the
+	 * application classes directory by directory, in the order of -dirs,
+	 * and each directory in the order in which it lists its class files, so
+	 * the reducer lists the directories the same way. Classes in none of the
+	 * directories come last, in shard order.
+	 */
+	private static final class Position implements Comparable<Position> {
+		/** the place in the listing of -dirs, or MAX_VALUE if not listed. */
+		final int listed;
+		final int shard;
+		final int index;
+
+		Position(int listed, int shard, int index) {
+			this.listed = listed;
+			this.shard = shard;
+			this.index = index;
+		}
+
+		@Override
+		public int compareTo(Position o) {
+			if (listed != o.listed) {
+				return Integer.compare(listed, o.listed);
+			}
+			if (shard != o.shard) {
+				return Integer.compare(shard, o.shard);
+			}
+			return Integer.compare(index, o.index);
+		}
+	}
+
+	/** Everything the reducer needs from one shard. */
+	private static final class ShardResult {
+		/** all application classes, to decide which super classes are application classes. */
+		final List<String> applicationClasses = new ArrayList<String>();
+		final List<ClassRecord> classes = new ArrayList<ClassRecord>();
+		final List<ClassFields> fields = new ArrayList<ClassFields>();
+	}
+
+	// ================ coordinator ================
+
+	static void runCoordinator(RunContext context, List<Integer> strategies) {
+		final Options options = context.options;
+		if (options.methodClusterFileName != null || options.fieldClusterFileName != null) {
+			System.err.println("-methodclusters and -fieldclusters are not supported with -shards and are ignored.");
+		}
+		if (options.watch) {
+			System.err.println("-watch is not supported with -shards and is ignored.");
+		}
+		final List<List<String>> shards = split(options.classDirList, options.shards);
+		final String shardClassPath = String.join(File.pathSeparator, options.classDirList);
+		final File workDir;
+		try {
+			workDir = Files.createTempDirectory("clusterer_shards").toFile();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		final List<File> classInfos = new ArrayList<File>();
+		for (int i = 0; i < shards.size(); i++) {
+			classInfos.add(new File(workDir, "shard_" + i + "_class_info.json"));
+		}
+		try {
+			if (options.shardThreads) {
+				System.out.println("Loading " + shards.size() + " shards in threads.");
+				runInThreads(context, strategies, shards, shardClassPath, classInfos);
+			} else {
+				System.out.println("Running " + shards.size() + " shards in " + workDir);
+				runInProcesses(context, strategies, shards, shardClassPath, workDir, classInfos);
+			}
+		} finally {
+			delete(workDir);
+		}
+	}
+
+	/** Deletes the files of the shards and the directory. */
+	private static void delete(File workDir) {
+		final File[] files = workDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		if (!workDir.delete()) {
+			System.err.println("Could not delete " + workDir);
+		}
+	}
+
+	private static void runInProcesses(RunContext context, List<Integer> strategies, List<List<String>> shards,
+			String shardClassPath, File workDir, List<File> classInfos) {
+		final Options options = context.options;
+		final List<Process> workers = new ArrayList<Process>();
+		final List<File> partials = new ArrayList<File>();
+		try {
+			for (int i = 0; i < shards.size(); i++) {
+				final File partial = new File(workDir, "shard_" + i + ".bin");
+				partials.add(partial);
+
+				final List<String> command = new ArrayList<String>();
+				command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+				command.add("-Xmx" + options.workerHeap);
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(ClusterGenerator.class.getName());
+				command.add("-worker");
+				command.add(partial.getAbsolutePath());
+				command.add("-shardcp");
+				command.add(shardClassPath);
+				if (options.classInfoFileName != null) {
+					command.add("-classinfo");
+					command.add(classInfos.get(i).getAbsolutePath());
+				}
+				command.add("-format");
+				command.add(options.outputFormat);
+				if (options.applicationOnly) {
+					command.add("-apponly");
+				}
+				if (!options.includePackages.isEmpty()) {
+					command.add("-include");
+					command.addAll(options.includePackages);
+				}
+				if (!options.excludePackages.isEmpty()) {
+					command.add("-exclude");
+					command.addAll(options.excludePackages);
+				}
+				command.add("-dirs");
+				command.addAll(shards.get(i));
+
+				ProcessBuilder pb = new ProcessBuilder(command);
+				pb.redirectErrorStream(true);
+				pb.redirectOutput(new File(workDir, "shard_" + i + ".log"));
+				workers.add(pb.start());
+			}
+			for (int i = 0; i < workers.size(); i++) {
+				int exit = workers.get(i).waitFor();
+				if (exit != 0) {
+					// the log is deleted with the work directory, so show it now.
+					System.err.println("Shard " + i + " failed with exit code " + exit + ":");
+					Files.copy(new File(workDir, "shard_" + i + ".log").toPath(), System.err);
+					for (Process p : workers) {
+						p.destroy();
+					}
+					return;
+				}
+			}
+			final List<ShardResult> results = new ArrayList<ShardResult>();
+			for (File partial : partials) {
+				results.add(read(partial, context.words));
+			}
+			reduce(context, strategies, results, options.classInfoFileName == null ? null : classInfos);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (Process p : workers) {
+				p.destroy();
+			}
+		}
+	}
+
+	private static void runInThreads(RunContext context, List<Integer> strategies, List<List<String>> shards,
+			String shardClassPath, List<File> classInfos) {
+		final Options options = context.options;
+		final PackageFilter filter = options.getPackageFilter();
+		final Set<String> dict = ClusterGenerator.loadDictionary();
+		final List<ShardResult> results = SceneLoader.loadConcurrently(shards,
+				"." + File.pathSeparator + shardClassPath, filter, options.applicationOnly, shard -> {
+					if (options.classInfoFileName != null) {
+						ClusterGenerator.writeClassInfo(classInfos.get(shard), options.isNdjson());
+					}
+					return collect(filter, options.applicationOnly, dict, context.words);
+				});
+		reduce(context, strategies, results, options.classInfoFileName == null ? null : classInfos);
+	}
+
+	/**
+	 * Assigns the directories to at most n shards, largest first to the
+	 * shard with the fewest class files.
+	 */
+	static List<List<String>> split(List<String> dirs, int n) {
+		final Map<String, Long> sizes = new HashMap<String, Long>();
+		for (String dir : dirs) {
+			try (Stream<Path> files = Files.walk(new File(dir).toPath())) {
+				sizes.put(dir, files.filter(p -> p.toString().endsWith(".class")).count());
+			} catch (IOException e) {
+				sizes.put(dir, 0L);
+			}
+		}
+		final List<String> bySize = new ArrayList<String>(dirs);
+		bySize.sort((a, b) -> Long.compare(sizes.get(b), sizes.get(a)));
+
+		final int shardCount = Math.max(1, Math.min(n, dirs.size()));
+		final List<List<String>> shards = new ArrayList<List<String>>();
+		final long[] load = new long[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards.add(new LinkedList<String>());
+		}
+		for (String dir : bySize) {
+			int smallest = 0;
+			for (int i = 1; i < shardCount; i++) {
+				if (load[i] < load[smallest]) {
+					smallest = i;
+				}
+			}
+			shards.get(smallest).add(dir);
+			load[smallest] += sizes.get(dir);
+		}
+		return shards;
+	}
+
+	// ================ worker ================
+
+	public static void runWorker(Options options) {
+		final PackageFilter filter = options.getPackageFilter();
+		final String classPath = "." + File.pathSeparator
+				+ (options.shardClassPath == null ? "" : options.shardClassPath);
+		SceneLoader.loadFromClassDirs(options.classDirList, classPath, filter, options.applicationOnly);
+		final Set<String> dict = ClusterGenerator.loadDictionary();
+		final NameArena words = new NameArena();
+
+		try {
+			write(collect(filter, options.applicationOnly, dict, words), words, new File(options.workerOutputFileName));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		if (options.classInfoFileName != null) {
+			ClusterGenerator.writeClassInfo(new File(options.classInfoFileName), options.isNdjson());
+		}
+	}
+
+	/**
+	 * Tokenizes the classes of the current scene and collects the fields of
+	 * its application classes.
+	 */
+	private static ShardResult collect(PackageFilter filter, boolean applicationOnly, Set<String> dict,
+			NameArena words) {
+		final ShardResult result = new ShardResult();
+		for (SootClass sc : Scene.v().getApplicationClasses()) {
+			result.applicationClasses.add(sc.getName());
+		}
+
+		final Map<String, int[]> splitCache = new HashMap<String, int[]>();
+		for (SootClass sc : ClusterGenerator.getAllClasses(filter, applicationOnly)) {
+			TokenizedClass tc = ClusterGenerator.tokenize(sc, dict, splitCache, words);
+			if (tc == null) {
+				continue;
+			}
+			// the super class may be an application class of another shard,
+			// so its words are kept even if it is a library class here.
+			String parentName = null;
+			boolean parentApplication = false;
+			int[] parentWords = null;
+			if (sc.resolvingLevel() >= SootClass.HIERARCHY && sc.hasSuperclass()) {
+				final SootClass parent = sc.getSuperclass();
+				parentName = parent.getName();
+				parentApplication = parent.isApplicationClass();
+				parentWords = ClusterGenerator.cachedSplit(parent.getJavaStyleName(), dict, splitCache, words);
+			}
+			result.classes.add(new ClassRecord(sc.getName(), sc.isApplicationClass(), tc.words, parentName,
+					parentApplication, parentWords));
+		}
+
+		for (SootClass sc : Scene.v().getApplicationClasses()) {
+			if (sc.resolvingLevel() >= SootClass.SIGNATURES) {
+				result.fields.add(FieldTypeIndex.collectFields(sc));
+			}
+		}
+		return result;
+	}
+
+	private static void write(ShardResult result, NameArena words, File out) throws IOException {
+		try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)))) {
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+
+			data.writeInt(result.applicationClasses.size());
+			for (String name : result.applicationClasses) {
+				data.writeUTF(name);
+			}
+
+			data.writeInt(result.classes.size());
+			for (ClassRecord record : result.classes) {
+				data.writeUTF(record.name);
+				data.writeBoolean(record.application);
+				writeWords(data, record.words, words);
+				data.writeBoolean(record.parentName != null);
+				if (record.parentName != null) {
+					data.writeUTF(record.parentName);
+					data.writeBoolean(record.parentApplication);
+					writeWords(data, record.parentWords, words);
+				}
+			}
+
+			data.writeInt(result.fields.size());
+			for (ClassFields cf : result.fields) {
+				data.writeUTF(cf.declaringClass);
+				data.writeInt(cf.names.length);
+				for (int i = 0; i < cf.names.length; i++) {
+					data.writeUTF(cf.typeKeys[i]);
+					data.writeUTF(cf.names[i]);
+				}
+			}
+		}
+	}
+
+	private static ShardResult read(File partial, NameArena words) throws IOException {
+		final ShardResult result = new ShardResult();
+		try (DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(partial)))) {
+			if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+				throw new IOException("Not a partial result: " + partial);
+			}
+			int n = data.readInt();
+			for (int i = 0; i < n; i++) {
+				result.applicationClasses.add(data.readUTF());
+			}
+			n = data.readInt();
+			for (int i = 0; i < n; i++) {
+				final String name = data.readUTF();
+				final boolean application = data.readBoolean();
+				final int[] classWords = readWords(data, words);
+				String parentName = null;
+				boolean parentApplication = false;
+				int[] parentWords = null;
+				if (data.readBoolean()) {
+					parentName = data.readUTF();
+					parentApplication = data.readBoolean();
+					parentWords = readWords(data, words);
+				}
+				result.classes.add(
+						new ClassRecord(name, application, classWords, parentName, parentApplication, parentWords));
+			}
+			n = data.readInt();
+			for (int i = 0; i < n; i++) {
+				final String declaringClass = data.readUTF();
+				final int count = data.readInt();
+				final String[] typeKeys = new String[count];
+				final String[] names = new String[count];
+				for (int f = 0; f < count; f++) {
+					typeKeys[f] = data.readUTF();
+					names[f] = data.readUTF();
+				}
+				result.fields.add(new ClassFields(declaringClass, typeKeys, names));
+			}
+		}
+		return result;
+	}
+
+	private static void writeWords(DataOutputStream data, int[] handles, NameArena words) throws IOException {
+		data.writeInt(handles.length);
+		for (int w : handles) {
+			data.writeUTF(words.get(w));
+		}
+	}
+
+	private static int[] readWords(DataInputStream data, NameArena words) throws IOException {
+		final int[] handles = new int[data.readInt()];
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = words.intern(data.readUTF());
+		}
+		return handles;
+	}
+
+	// ================ reducer ================
+
+	/**
+	 * Merges the results of all shards and writes the outputs.
+	 *
+	 * @param classInfos
+	 *            the class info files of the shards, or null.
+	 */
+	private static void reduce(RunContext context, List<Integer> strategies, List<ShardResult> results,
+			List<File> classInfos) {
+		final List<String> dirs = context.options.classDirList;
+		final Map<String, Integer> listing = listClasses(dirs);
+		final Set<String> applicationClasses = new HashSet<String>();
+		final Map<String, ClassRecord> classes = new HashMap<String, ClassRecord>();
+		final Map<String, Position> classPositions = new HashMap<String, Position>();
+		final Map<String, ClassFields> fields = new HashMap<String, ClassFields>();
+		final Map<String, Position> fieldPositions = new HashMap<String, Position>();
+
+		for (int shard = 0; shard < results.size(); shard++) {
+			final ShardResult result = results.get(shard);
+			applicationClasses.addAll(result.applicationClasses);
+			for (int i = 0; i < result.classes.size(); i++) {
+				final ClassRecord record = result.classes.get(i);
+				final ClassRecord old = classes.get(record.name);
+				// prefer the shard that loaded the class as application class.
+				if (old == null || (!old.application && record.application)) {
+					classes.put(record.name, record);
+					classPositions.put(record.name,
+							new Position(record.application ? listed(listing, record.name) : Integer.MAX_VALUE,
+									shard, i));
+				}
+			}
+			for (int i = 0; i < result.fields.size(); i++) {
+				final ClassFields cf = result.fields.get(i);
+				fields.put(cf.declaringClass, cf);
+				fieldPositions.put(cf.declaringClass,
+						new Position(listed(listing, cf.declaringClass), shard, i));
+			}
+		}
+		System.out.println("Merged " + classes.size() + " classes from " + results.size() + " shards.");
+
+		// same super class rule as ClusterGenerator.tokenize in a single process.
+		final List<TokenizedClass> tokenized = new ArrayList<TokenizedClass>(classes.size());
+		for (String name : inOrder(classPositions)) {
+			final ClassRecord record = classes.get(name);
+			int[] parentWords = null;
+			if (record.parentName != null
+					&& (record.parentApplication || applicationClasses.contains(record.parentName))) {
+				parentWords = record.parentWords;
+			}
+			tokenized.add(new TokenizedClass(record.name, record.words, parentWords, context.words));
+		}
+
+		final Map<Integer, Strategy> running = ClusteringPipeline.newStrategies(strategies,
+				ClusterGenerator.IGNORE_WORDS, context);
+		ClusteringPipeline.addAll(tokenized, running, context.budget);
+		final Map<Integer, Map<String, Set<String>>> clusters = ClusteringPipeline.merge(running);
+
+		final List<ClassFields> fieldList = new ArrayList<ClassFields>(fields.size());
+		for (String name : inOrder(fieldPositions)) {
+			fieldList.add(fields.get(name));
+		}
+		ClusterGenerator.writeOutputs(context, strategies, clusters, () -> FieldTypeIndex.fromClassFields(fieldList),
+				file -> mergeClassInfo(classInfos, listing, file, context.options.isNdjson()));
+	}
+
+	/** @return the names, sorted by their positions. */
+	private static List<String> inOrder(Map<String, Position> positions) {
+		final List<String> names = new ArrayList<String>(positions.keySet());
+		names.sort((a, b) -> positions.get(a).compareTo(positions.get(b)));
+		return names;
+	}
+
+	/**
+	 * @return class name -> place of its first class file in the listing of
+	 *         all directories.
+	 */
+	private static Map<String, Integer> listClasses(List<String> dirs) {
+		final Map<String, Integer> listing = new HashMap<String, Integer>();
+		for (int i = 0; i < dirs.size(); i++) {
+			final Path root = new File(dirs.get(i)).toPath();
+			try (Stream<Path> files = Files.walk(root)) {
+				for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".class"))::iterator) {
+					final String relative = root.relativize(file).toString();
+					final String name = relative.substring(0, relative.length() - ".class".length())
+							.replace(File.separatorChar, '.');
+					listing.putIfAbsent(name, listing.size());
+				}
+			} catch (IOException e) {
+				// e.g., a missing directory, whose classes are not loaded either.
+			}
+		}
+		return listing;
+	}
+
+	private static int listed(Map<String, Integer> listing, String name) {
+		final Integer listed = listing.get(name);
+		return listed == null ? Integer.MAX_VALUE : listed;
+	}
+
+	/**
+	 * Merges the class info of the shards, one entry per class, in the order
+	 * of a single-process run.
+	 *
+	 * @param ndjson
+	 *            the shards wrote one class per line, otherwise the classes
+	 *            of the json array are separated by lines with a comma.
+	 */
+	private static void mergeClassInfo(List<File> classInfos, Map<String, Integer> listing,
+			File outfile, boolean ndjson) {
+		if (classInfos == null) {
+			return;
+		}
+		final Map<String, String> entries = new HashMap<String, String>();
+		final Map<String, Position> positions = new HashMap<String, Position>();
+		try {
+			for (int shard = 0; shard < classInfos.size(); shard++) {
+				final List<String> lines = Files.readAllLines(classInfos.get(shard).toPath(), StandardCharsets.UTF_8);
+				final List<String> shardEntries = new ArrayList<String>();
+				if (ndjson) {
+					shardEntries.addAll(lines);
+				} else if (lines.size() > 2) {
+					// strip the opening and closing line of each shard.
+					StringBuilder entry = new StringBuilder();
+					for (String line : lines.subList(1, lines.size() - 1)) {
+						if (line.equals(",")) {
+							shardEntries.add(entry.toString());
+							entry = new StringBuilder();
+						} else {
+							entry.append(line).append('\n');
+						}
+					}
+					shardEntries.add(entry.toString());
+				}
+				for (int i = 0; i < shardEntries.size(); i++) {
+					final Matcher m = CLASS_NAME.matcher(shardEntries.get(i));
+					if (!m.find()) {
+						continue;
+					}
+					entries.put(m.group(1), shardEntries.get(i));
+					positions.put(m.group(1), new Position(listed(listing, m.group(1)), shard, i));
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (ndjson) {
+			try (PrintWriter writer = OutputFiles.writer(outfile)) {
+				for (String name : inOrder(positions)) {
+					writer.println(entries.get(name));
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		try (PrintWriter writer = OutputFiles.writer(outfile)) {
+			writer.println("{\"classinfo\": [");
+			String comma = "";
+			for (String name : inOrder(positions)) {
+				writer.print(comma);
+				writer.print(entries.get(name));
+				comma = ",\n";
+			}
+			writer.println("]}");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
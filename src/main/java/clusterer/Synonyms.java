@@ -0,0 +1,90 @@
+package clusterer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the lowest synonym of a word for strategy 4, within the synonym
+ * budget of a run. Lookups are cached in a map that can be shared by several
+ * runs, and is safe to use from several threads if it is a concurrent map.
+ */
+final class Synonyms {
+
+	private final Map<String, String> cache;
+	private final Budget budget;
+
+	/**
+	 * @param cache
+	 *            word -> lowest synonym.
+	 * @param budget
+	 */
+	Synonyms(Map<String, String> cache, Budget budget) {
+		this.cache = cache;
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets all synonyms from wordnet, sorts them alphabetically, and picks the
+	 * smallest. If the synonym budget is exhausted, the word itself is used.
+	 * 
+	 * @param word
+	 * @return
+	 */
+	String lowest(String word) {
+		final ClustererEvents.SynonymLookup event = ClustererEvents.synonymLookup();
+		String synonym = cache.get(word);
+		if (event != null) {
+			event.word = word;
+			event.cacheHit = synonym != null;
+		}
+		if (synonym == null) {
+			synonym = lookup(word);
+		}
+		if (event != null) {
+			event.commit();
+		}
+		return synonym;
+	}
+
+	private String lookup(String word) {
+		if (budget.expired(Budget.Stage.SYNONYMS)) {
+			// out of time, use the word itself, but do not cache it.
+			return word;
+		}
+		String synonym = null;
+		try {
+			String line;
+			Process p = Runtime.getRuntime().exec("python syn.py " + word);
+			if (!p.waitFor(budget.remainingMillis(Budget.Stage.SYNONYMS), TimeUnit.MILLISECONDS)) {
+				p.destroyForcibly();
+				budget.markExhausted(Budget.Stage.SYNONYMS);
+				return word;
+			}
+			try (BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+				while ((line = input.readLine()) != null) {
+					synonym = line;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return word;
+		}
+		if (synonym == null) {
+			synonym = word;
+		}
+		final String old = cache.putIfAbsent(word, synonym);
+		return old != null ? old : synonym;
+	}
+
+	/**
+	 * @return why the synonyms of the run are incomplete, or null.
+	 */
+	String partialReason() {
+		return budget.partialReason(Budget.Stage.SYNONYMS);
+	}
+}
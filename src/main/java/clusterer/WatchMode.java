@@ -0,0 +1,504 @@
+package clusterer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import clusterer.ClusterGenerator.Strategy;
+import clusterer.ClusterGenerator.TokenizedClass;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+
+/**
+ * Keeps the scene loaded and reclusters whenever class files in -dirs
+ * change (-watch). The directories are watched with a WatchService. Once no
+ * class file changed for -debounce milliseconds, i.e., the compiler is
+ * done, only the touched classes are removed from the live scene and loaded
+ * again. The classes that refer to them are relinked to the new SootClass
+ * objects, the touched classes and their direct sub classes are tokenized
+ * again, and all strategies run on the cached words of the other classes.
+ *
+ * Only the outputs that a rebuild changed are written again: the clusters
+ * of a strategy if they differ from the last ones written, and the member
+ * clusters, the class info, and the field maps only if the members or
+ * signatures of a touched class changed, not for a change of method bodies
+ * alone. The first build writes all outputs as in a single run.
+ *
+ * If the WatchService loses events (overflow), or a rebuild fails, the
+ * scene is loaded from scratch on the next change. Each rebuild starts a
+ * new time budget, the synonym cache is kept.
+ */
+public final class WatchMode implements Closeable {
+
+	private final Options options;
+	private final List<Integer> strategies;
+	private final PackageFilter filter;
+	/** the watched directories of -dirs. */
+	private final List<Path> roots = new ArrayList<Path>();
+	private final WatchService service;
+	private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+	/** word -> lowest synonym, shared by all rebuilds. */
+	private final Map<String, String> synonymCache = new ConcurrentHashMap<String, String>();
+	/** the words of the class names, shared by all rebuilds like the splitCache. */
+	private final NameArena words = new NameArena();
+	private final Map<String, int[]> splitCache = new ConcurrentHashMap<String, int[]>();
+	/** class name -> words. */
+	private final Map<String, TokenizedClass> tokenized = new HashMap<String, TokenizedClass>();
+	private Set<String> dict;
+	/** strategy -> label -> class names of the clusters written last. */
+	private final Map<Integer, Map<String, List<String>>> written = new HashMap<Integer, Map<String, List<String>>>();
+
+	/** names of the classes whose class files changed since the last rebuild. */
+	private final Set<String> touched = new TreeSet<String>();
+	private boolean reloadAll = false;
+	/** whether the last reload changed the member names or the signatures of a class. */
+	private boolean membersChanged = true;
+	private boolean signaturesChanged = true;
+
+	private WatchMode(Options options, List<Integer> strategies) throws IOException {
+		this.options = options;
+		this.strategies = strategies;
+		this.filter = options.getPackageFilter();
+		for (String dir : options.classDirList) {
+			roots.add(Paths.get(dir).toAbsolutePath().normalize());
+		}
+		this.service = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Runs the clusterer once, and then again whenever class files change.
+	 * Only returns if the thread is interrupted or watching fails.
+	 *
+	 * @param options
+	 * @param strategies
+	 */
+	public static void run(Options options, List<Integer> strategies) {
+		try (WatchMode watch = new WatchMode(options, strategies)) {
+			watch.watch();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		service.close();
+	}
+
+	private void watch() throws IOException, InterruptedException {
+		// load the dictionary while soot loads the scene.
+		final Future<Set<String>> dictFuture = ClusteringPipeline.async(ClusterGenerator::loadDictionary);
+		// register first, so classes written while loading are not missed.
+		for (Path root : roots) {
+			if (Files.isDirectory(root)) {
+				registerAll(root, false);
+			}
+		}
+		long start = System.currentTimeMillis();
+		SceneLoader.loadFromClassDirs(options.classDirList, ".", filter, options.applicationOnly);
+		dict = ClusteringPipeline.join(dictFuture);
+		tokenizeAll();
+		recluster();
+		System.out.println("Watching " + keys.size() + " directories. Ready after "
+				+ (System.currentTimeMillis() - start) + "ms.");
+
+		while (true) {
+			WatchKey key = missingRoots() ? service.poll(options.watchDebounceMillis, TimeUnit.MILLISECONDS)
+					: service.take();
+			if (key != null) {
+				collect(key);
+			}
+			// wait until the burst of writes of a build is over.
+			while ((key = service.poll(options.watchDebounceMillis, TimeUnit.MILLISECONDS)) != null) {
+				collect(key);
+			}
+			checkMissingRoots();
+			if (!reloadAll && touched.isEmpty()) {
+				continue;
+			}
+
+			start = System.currentTimeMillis();
+			final int changed = touched.size();
+			final boolean all = reloadAll;
+			try {
+				if (all) {
+					System.out.println("Lost track of changes, reloading all classes.");
+					soot.G.reset();
+					SceneLoader.loadFromClassDirs(options.classDirList, ".", filter, options.applicationOnly);
+					tokenizeAll();
+					written.clear();
+					membersChanged = true;
+					signaturesChanged = true;
+				} else {
+					reload();
+				}
+				recluster();
+				System.out.println("Reclustered " + (all ? "all" : changed + " changed") + " classes in "
+						+ (System.currentTimeMillis() - start) + "ms.");
+				reloadAll = false;
+			} catch (RuntimeException e) {
+				// the scene may be half updated, so start over with the next change.
+				System.err.println("Rebuild failed, reloading all classes on the next change.");
+				e.printStackTrace();
+				reloadAll = true;
+			}
+			touched.clear();
+		}
+	}
+
+	/**
+	 * Registers the directory and all directories below it.
+	 *
+	 * @param dir
+	 * @param touch
+	 *            if true, the class files below dir are touched, e.g., for a
+	 *            new package.
+	 */
+	private void registerAll(Path dir, boolean touch) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path p : files.collect(Collectors.toList())) {
+				if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+					keys.put(p.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), p);
+				} else if (touch) {
+					touch(p);
+				}
+			}
+		}
+	}
+
+	private void collect(WatchKey key) throws IOException {
+		final Path dir = keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				reloadAll = true;
+				continue;
+			}
+			final Path child = dir.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+					&& Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+				registerAll(child, true);
+			} else {
+				touch(child);
+			}
+		}
+		if (!key.reset()) {
+			// the directory is gone, and with it all classes below it.
+			keys.remove(key);
+			final String prefix = packagePrefix(dir);
+			if (prefix != null) {
+				for (SootClass sc : Scene.v().getApplicationClasses()) {
+					if (sc.getName().startsWith(prefix) && classFile(sc.getName()) == null) {
+						touched.add(sc.getName());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the class of a class file as touched.
+	 */
+	private void touch(Path file) {
+		final String name = file.getFileName().toString();
+		if (!name.endsWith(".class") || name.equals("package-info.class") || name.equals("module-info.class")) {
+			return;
+		}
+		final String prefix = packagePrefix(file.getParent());
+		if (prefix != null) {
+			touched.add(prefix + name.substring(0, name.length() - ".class".length()));
+		}
+	}
+
+	/**
+	 * @return the package of a directory below a root, followed by a dot
+	 *         unless it is the default package, or null if the directory is
+	 *         not below a root.
+	 */
+	private String packagePrefix(Path dir) {
+		for (Path root : roots) {
+			if (dir.startsWith(root)) {
+				final StringBuilder sb = new StringBuilder();
+				for (Path part : root.relativize(dir)) {
+					if (!part.toString().isEmpty()) {
+						sb.append(part).append('.');
+					}
+				}
+				return sb.toString();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the class file of the class in the first root that has one,
+	 *         or null if there is none.
+	 */
+	private Path classFile(String className) {
+		final String relative = className.replace('.', '/') + ".class";
+		for (Path root : roots) {
+			final Path file = root.resolve(relative);
+			if (Files.isRegularFile(file)) {
+				return file;
+			}
+		}
+		return null;
+	}
+
+	private boolean missingRoots() {
+		for (Path root : roots) {
+			if (!keys.containsValue(root)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Watches roots that were deleted, e.g., by a clean build, again once
+	 * they exist.
+	 */
+	private void checkMissingRoots() throws IOException {
+		for (Path root : roots) {
+			if (!keys.containsValue(root) && Files.isDirectory(root)) {
+				registerAll(root, true);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the touched classes in the scene with their current class
+	 * files, and drops the classes whose files are gone.
+	 */
+	private void reload() {
+		final Map<String, String> members = new HashMap<String, String>();
+		final Map<String, String> signatures = new HashMap<String, String>();
+		// remove all of them first, so loading one class does not link to
+		// the old version of another touched class.
+		for (String name : touched) {
+			tokenized.remove(name);
+			if (Scene.v().containsClass(name)) {
+				final SootClass sc = Scene.v().getSootClass(name);
+				members.put(name, memberNames(sc));
+				signatures.put(name, signatures(sc));
+				Scene.v().removeClass(sc);
+			}
+		}
+		for (String name : touched) {
+			if (classFile(name) == null) {
+				continue;
+			}
+			try {
+				final boolean accepted = filter.accepts(name);
+				final SootClass sc = Scene.v().forceResolve(name, accepted ? SootClass.BODIES : SootClass.SIGNATURES);
+				if (accepted) {
+					sc.setApplicationClass();
+				} else {
+					sc.setLibraryClass();
+				}
+			} catch (RuntimeException e) {
+				// e.g., a class file that is still being written. It is
+				// touched again when the compiler finishes it.
+				System.err.println("Could not load " + name + ": " + e.getMessage());
+			}
+		}
+		relink();
+		Scene.v().releaseActiveHierarchy();
+		Scene.v().releaseFastHierarchy();
+
+		membersChanged = false;
+		signaturesChanged = false;
+		for (String name : touched) {
+			final SootClass sc = Scene.v().containsClass(name) ? Scene.v().getSootClass(name) : null;
+			membersChanged |= !Objects.equals(members.get(name), sc == null ? null : memberNames(sc));
+			signaturesChanged |= !Objects.equals(signatures.get(name), sc == null ? null : signatures(sc));
+		}
+	}
+
+	/**
+	 * @return the names of the fields and methods of the class, as they
+	 *         are clustered by -fieldclusters and -methodclusters.
+	 */
+	private static String memberNames(SootClass sc) {
+		if (sc.resolvingLevel() < SootClass.SIGNATURES) {
+			return "";
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (SootField sf : sc.getFields()) {
+			sb.append(sf.getName()).append(';');
+		}
+		for (SootMethod sm : sc.getMethods()) {
+			sb.append(sm.getName()).append(';');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return everything about the class that the class info and the field
+	 *         maps contain, i.e., all but the method bodies.
+	 */
+	private static String signatures(SootClass sc) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(sc.isApplicationClass()).append(';');
+		if (sc.resolvingLevel() < SootClass.SIGNATURES) {
+			return sb.toString();
+		}
+		if (sc.hasSuperclass()) {
+			sb.append(sc.getSuperclass().getName());
+		}
+		sb.append(';');
+		for (SootClass itf : sc.getInterfaces()) {
+			sb.append(itf.getName()).append(';');
+		}
+		for (SootField sf : sc.getFields()) {
+			sb.append(sf.getName()).append(':').append(sf.getType()).append(';');
+		}
+		for (SootMethod sm : sc.getMethods()) {
+			sb.append(sm.getSignature()).append(';');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Points the super classes, interfaces, and outer classes of all
+	 * classes that still refer to removed classes to the classes that
+	 * replaced them, or to phantom classes. A class that cannot be relinked
+	 * keeps referring to the removed class until it is loaded again.
+	 */
+	private void relink() {
+		for (SootClass sc : new ArrayList<SootClass>(Scene.v().getClasses())) {
+			try {
+				if (sc.hasSuperclass() && !sc.getSuperclass().isInScene()) {
+					sc.setSuperclass(replacement(sc.getSuperclass()));
+				}
+				for (SootClass itf : new ArrayList<SootClass>(sc.getInterfaces())) {
+					if (!itf.isInScene()) {
+						sc.removeInterface(itf);
+						sc.addInterface(replacement(itf));
+					}
+				}
+				if (sc.hasOuterClass() && !sc.getOuterClass().isInScene()) {
+					sc.setOuterClass(replacement(sc.getOuterClass()));
+				}
+			} catch (RuntimeException e) {
+				// e.g., a super class whose class file is still being written.
+				System.err.println("Could not relink " + sc.getName() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static SootClass replacement(SootClass removed) {
+		return Scene.v().forceResolve(removed.getName(), SootClass.HIERARCHY);
+	}
+
+	private void tokenizeAll() {
+		tokenized.clear();
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		final ExecutorService pool = Executors.newFixedThreadPool(threads,
+				SceneLoader.contextThreads("clusterer-tokenize"));
+		try {
+			ClusteringPipeline.forEachBatch(ClusterGenerator.getAllClasses(filter, options.applicationOnly), pool,
+					batch -> {
+						final List<TokenizedClass> done = new ArrayList<TokenizedClass>(batch.size());
+						for (SootClass sc : batch) {
+							final TokenizedClass tc = ClusterGenerator.tokenize(sc, dict, splitCache, words);
+							if (tc != null) {
+								done.add(tc);
+							}
+						}
+						return done;
+					}, done -> {
+						for (TokenizedClass tc : done) {
+							tokenized.put(tc.name, tc);
+						}
+					});
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Tokenizes the touched classes and their direct sub classes, whose
+	 * parent words may have changed, runs all strategies on the cached
+	 * words, and writes the outputs that changed.
+	 */
+	private void recluster() {
+		final List<SootClass> classes = ClusterGenerator.getAllClasses(filter, options.applicationOnly);
+		for (SootClass sc : classes) {
+			if (touched.contains(sc.getName())
+					|| (sc.hasSuperclass() && touched.contains(sc.getSuperclass().getName()))) {
+				final TokenizedClass tc = ClusterGenerator.tokenize(sc, dict, splitCache, words);
+				if (tc == null) {
+					tokenized.remove(sc.getName());
+				} else {
+					tokenized.put(sc.getName(), tc);
+				}
+			}
+		}
+
+		// add in the order of getAllClasses, as a single run on this scene does.
+		final RunContext context = new RunContext(options, synonymCache, words);
+		final Map<Integer, Strategy> running = ClusteringPipeline.newStrategies(strategies,
+				ClusterGenerator.IGNORE_WORDS, context);
+		final List<TokenizedClass> inOrder = new ArrayList<TokenizedClass>(classes.size());
+		for (SootClass sc : classes) {
+			final TokenizedClass tc = tokenized.get(sc.getName());
+			if (tc != null) {
+				inOrder.add(tc);
+			}
+		}
+		ClusteringPipeline.addAll(inOrder, running, context.budget);
+		final Map<Integer, Map<String, Set<String>>> clusters = ClusteringPipeline.merge(running);
+
+		final List<Integer> changed = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Map<String, Set<String>>> entry : clusters.entrySet()) {
+			final Map<String, List<String>> names = new LinkedHashMap<String, List<String>>();
+			for (Map.Entry<String, Set<String>> cluster : entry.getValue().entrySet()) {
+				names.put(cluster.getKey(), new ArrayList<String>(cluster.getValue()));
+			}
+			// maps are equal in any order, but the files list the clusters in order.
+			final Map<String, List<String>> previous = written.get(entry.getKey());
+			if (previous == null || !previous.equals(names)
+					|| !new ArrayList<String>(previous.keySet()).equals(new ArrayList<String>(names.keySet()))) {
+				changed.add(entry.getKey());
+				written.put(entry.getKey(), names);
+			}
+		}
+
+		if (membersChanged) {
+			ClusterGenerator.writeMemberClusters(context, strategies, classes, dict);
+		}
+		ClusterGenerator.writeOutputs(context, strategies, changed, clusters,
+				signaturesChanged ? () -> FieldTypeIndex.build(Scene.v().getApplicationClasses()) : null,
+				signaturesChanged ? file -> ClusterGenerator.writeClassInfo(file, options.isNdjson()) : null);
+		System.out.println("Wrote the clusters of " + changed.size() + " of " + clusters.size() + " strategies"
+				+ (signaturesChanged ? "." : ", kept the class info and field maps."));
+	}
+}
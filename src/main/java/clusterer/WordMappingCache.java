@@ -0,0 +1,230 @@
+package clusterer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.vesperin.text.Introspector;
+
+/**
+ * Disk cache of the word field mappings of -wfm, i.e., of the result of
+ * Introspector.buildWordsMap and Recommend.mappingOfLabels for the field
+ * names of one type. The key is a SHA-256 hash of the sorted field names
+ * and the version of the text mining library, so a type whose fields did
+ * not change since the previous run skips the text mining.
+ *
+ * The cache keeps at most a given number of types and evicts the least
+ * recently used ones. Entries are kept in access order, so the order in
+ * which they are saved is also their order of use.
+ *
+ * Layout (gzip compressed): magic, version, number of entries, and per
+ * entry the key, followed by the mapping as (label, fields) pairs. An empty
+ * mapping records that a type has no relevant words.
+ */
+public final class WordMappingCache {
+
+	private static final int MAGIC = 0x57464D43;
+	private static final int VERSION = 1;
+	private static final int KEY_LENGTH = 32;
+
+	private final File file;
+	private final LinkedHashMap<Key, Map<String, List<String>>> entries;
+	private final String libraryVersion = libraryVersion();
+	private int hits = 0;
+	private int misses = 0;
+
+	/** The hash of the field names of a type. */
+	public static final class Key {
+		final byte[] hash;
+
+		private Key(byte[] hash) {
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(hash, ((Key) other).hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(hash);
+		}
+	}
+
+	private WordMappingCache(File file, final int maxEntries) {
+		this.file = file;
+		this.entries = new LinkedHashMap<Key, Map<String, List<String>>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Map<String, List<String>>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Reads the cache, or starts an empty one if the file does not exist or
+	 * cannot be read.
+	 *
+	 * @param file
+	 * @param maxEntries
+	 *            the number of types kept when the cache is saved.
+	 * @return
+	 */
+	public static WordMappingCache load(File file, int maxEntries) {
+		final WordMappingCache cache = new WordMappingCache(file, maxEntries);
+		if (!file.isFile()) {
+			return cache;
+		}
+		try (DataInputStream data = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+				System.err.println("Ignoring word mapping cache with unknown format: " + file);
+				return cache;
+			}
+			final int count = data.readInt();
+			for (int i = 0; i < count; i++) {
+				final byte[] hash = new byte[KEY_LENGTH];
+				data.readFully(hash);
+				final int labels = data.readInt();
+				final Map<String, List<String>> mapping = new LinkedHashMap<String, List<String>>();
+				for (int j = 0; j < labels; j++) {
+					final String label = data.readUTF();
+					final int fieldCount = data.readInt();
+					final List<String> fields = new ArrayList<String>(fieldCount);
+					for (int k = 0; k < fieldCount; k++) {
+						fields.add(data.readUTF());
+					}
+					mapping.put(label, fields);
+				}
+				cache.entries.put(new Key(hash), mapping);
+			}
+		} catch (IOException e) {
+			System.err.println("Ignoring unreadable word mapping cache " + file + ": " + e.getMessage());
+			cache.entries.clear();
+		}
+		return cache;
+	}
+
+	/**
+	 * @param fieldNames
+	 *            the field names of a type, with duplicates, in any order.
+	 * @return the key of the mapping of these field names.
+	 */
+	public Key keyOf(List<String> fieldNames) {
+		final List<String> sorted = new ArrayList<String>(fieldNames);
+		Collections.sort(sorted);
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(libraryVersion.getBytes(StandardCharsets.UTF_8));
+		for (String name : sorted) {
+			digest.update((byte) 0);
+			digest.update(name.getBytes(StandardCharsets.UTF_8));
+		}
+		return new Key(digest.digest());
+	}
+
+	/**
+	 * @param key
+	 *            from {@link #keyOf(List)}.
+	 * @return the cached mapping, empty if the type has no relevant words,
+	 *         or null if it is not cached.
+	 */
+	public synchronized Map<String, List<String>> get(Key key) {
+		final Map<String, List<String>> mapping = entries.get(key);
+		if (mapping == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return mapping;
+	}
+
+	/**
+	 * @param key
+	 *            from {@link #keyOf(List)}.
+	 * @param mapping
+	 *            label -> field names, empty if the type has no relevant
+	 *            words.
+	 */
+	public synchronized void put(Key key, Map<String, List<String>> mapping) {
+		entries.put(key, mapping);
+	}
+
+	/**
+	 * Writes the cache, least recently used entries first, and replaces the
+	 * file only once it is complete.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try (DataOutputStream data = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpFile))))) {
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(entries.size());
+			for (Map.Entry<Key, Map<String, List<String>>> entry : entries.entrySet()) {
+				data.write(entry.getKey().hash);
+				data.writeInt(entry.getValue().size());
+				for (Map.Entry<String, List<String>> label : entry.getValue().entrySet()) {
+					data.writeUTF(label.getKey());
+					data.writeInt(label.getValue().size());
+					for (String field : label.getValue()) {
+						data.writeUTF(field);
+					}
+				}
+			}
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Word mapping cache: " + hits + " hits, " + misses + " misses, " + entries.size()
+				+ " types kept in " + file);
+	}
+
+	/**
+	 * @return the version of the text mining library, or the size and date
+	 *         of its jar if it has no version.
+	 */
+	private static String libraryVersion() {
+		final Package p = Introspector.class.getPackage();
+		if (p != null && p.getImplementationVersion() != null) {
+			return p.getImplementationVersion();
+		}
+		final CodeSource source = Introspector.class.getProtectionDomain().getCodeSource();
+		if (source != null && source.getLocation() != null) {
+			try {
+				final File jar = new File(source.getLocation().toURI());
+				return jar.getName() + ":" + jar.length() + ":" + jar.lastModified();
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				return source.getLocation().toString();
+			}
+		}
+		return "unknown";
+	}
+}
@@ -0,0 +1,51 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import clusterer.ClusterGenerator;
+
+/**
+ * Runs the clusterer in the current JVM and prints one line with the wall
+ * time, the peak resident set size, and the time spent in GC. Used by
+ * {@link MacroBenchmark} in a forked JVM per run.
+ */
+public final class BenchmarkRunner {
+
+	static final String RESULT_PREFIX = "BENCHMARK_RESULT\t";
+
+	public static void main(String[] args) {
+		final long start = System.nanoTime();
+		ClusterGenerator.main(args);
+		final long wallMs = (System.nanoTime() - start) / 1000000L;
+
+		long gcMs = 0;
+		long gcCount = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcMs += Math.max(0, gc.getCollectionTime());
+			gcCount += Math.max(0, gc.getCollectionCount());
+		}
+		System.out.println(RESULT_PREFIX + wallMs + "\t" + peakRssKb() + "\t" + gcMs + "\t" + gcCount);
+	}
+
+	/**
+	 * @return the peak resident set size in kB, or -1 if it is not available
+	 *         (i.e., not on Linux).
+	 */
+	static long peakRssKb() {
+		try (BufferedReader in = new BufferedReader(new FileReader("/proc/self/status"))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("VmHWM:")) {
+					return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// not available
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,212 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import clusterer.FootprintRunner;
+
+/**
+ * Heap footprint regression check. Generates projects of increasing size,
+ * runs the loader, the tokenizer, and each strategy in a forked JVM with a
+ * fixed max heap (see clusterer.FootprintRunner), and compares the retained
+ * bytes per class of each stage to a reference file. Fails (exit code 1) if
+ * a stage retains more than the reference plus the tolerance, or if a
+ * forked run fails, e.g., with an OutOfMemoryError.
+ *
+ * A missing reference file, or a size or stage without a reference, also
+ * fails the check, so that a regression cannot pass by not being compared.
+ * -update replaces all references with the current measurements instead.
+ * Every measurement is also appended to the results file, tagged with the
+ * current commit.
+ * Run with: gradle footprint
+ */
+public final class FootprintBenchmark {
+
+	@Option(name = "-sizes", usage = "Comma separated number of classes per generated project.")
+	private String sizes = "10000,50000,100000";
+
+	@Option(name = "-cs", usage = "Comma separated clustering strategies to measure.")
+	private String strategies = "1,2,3,5,6,7";
+
+	@Option(name = "-work", usage = "Directory for the generated projects.")
+	private String workDir = "build/benchmark";
+
+	@Option(name = "-reference", usage = "Tab separated reference bytes per class of each size and stage.")
+	private String referenceFile = "src/test/resources/footprint_reference.tsv";
+
+	@Option(name = "-results", usage = "Tab separated results file. Rows are appended.")
+	private String resultsFile = "build/benchmark/footprint.tsv";
+
+	@Option(name = "-tolerance", usage = "Allowed relative growth of the bytes per class of a stage. Default is 0.1.")
+	private double tolerance = 0.1;
+
+	@Option(name = "-slack", usage = "Allowed absolute growth of the bytes per class of a stage, for stages that retain little. Default is 16.")
+	private long slack = 16;
+
+	@Option(name = "-update", usage = "Replace the references with the current measurements instead of checking them.")
+	private boolean update = false;
+
+	@Option(name = "-Xmx", usage = "Max heap of the forked JVMs.")
+	private String maxHeap = "4g";
+
+	@Option(name = "-seed", usage = "Seed of the project generator.")
+	private long seed = 1;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		FootprintBenchmark benchmark = new FootprintBenchmark();
+		CmdLineParser parser = new CmdLineParser(benchmark);
+		try {
+			parser.parseArgument(args);
+		} catch (CmdLineException e) {
+			parser.printUsage(System.err);
+			System.exit(2);
+		}
+		if (!benchmark.run()) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return false if a run failed or a stage regressed.
+	 */
+	private boolean run() throws IOException, InterruptedException {
+		final File work = new File(workDir);
+		final File reference = new File(referenceFile);
+		final List<String> failures = new ArrayList<String>();
+		if (!update && !reference.isFile()) {
+			System.err.println("No footprint reference in " + reference + ", run with -update to record one.");
+			return false;
+		}
+		final Map<String, Long> references = update ? new LinkedHashMap<String, Long>() : readReference(reference);
+
+		final File results = new File(resultsFile);
+		final boolean newFile = !results.exists();
+		results.getAbsoluteFile().getParentFile().mkdirs();
+		final String commit = MacroBenchmark.currentCommit();
+		final String date = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+
+		try (PrintWriter out = new PrintWriter(
+				new OutputStreamWriter(new FileOutputStream(results, true), StandardCharsets.UTF_8))) {
+			if (newFile) {
+				out.println("commit\tdate\tclasses\tstage\tbytes_per_class\treference");
+			}
+			for (String size : sizes.split(",")) {
+				final int classCount = Integer.parseInt(size.trim());
+				final File project = MacroBenchmark.generatedProject(work, classCount, seed);
+				final Map<String, Long> measured = runStages(project);
+				if (measured == null) {
+					failures.add(classCount + " classes: forked run failed with -Xmx" + maxHeap);
+					continue;
+				}
+				for (Map.Entry<String, Long> stage : measured.entrySet()) {
+					final String key = classCount + "\t" + stage.getKey();
+					final Long expected = references.get(key);
+					final String row = commit + "\t" + date + "\t" + key + "\t" + stage.getValue() + "\t"
+							+ (expected == null ? "-" : expected.toString());
+					System.out.println(row);
+					out.println(row);
+					out.flush();
+					if (update) {
+						references.put(key, stage.getValue());
+					} else if (expected == null) {
+						failures.add(classCount + " classes, " + stage.getKey() + ": no reference, run with -update");
+					} else if (stage.getValue() > expected * (1 + tolerance) + slack) {
+						failures.add(classCount + " classes, " + stage.getKey() + ": " + stage.getValue()
+								+ " bytes per class, reference " + expected);
+					}
+				}
+			}
+		}
+
+		if (update && failures.isEmpty()) {
+			writeReference(reference, references);
+			System.out.println("Wrote " + references.size() + " references to " + reference);
+		}
+		for (String failure : failures) {
+			System.err.println("Heap footprint regression: " + failure);
+		}
+		return failures.isEmpty();
+	}
+
+	/**
+	 * @return stage -> retained bytes per class, or null if the run failed.
+	 */
+	private Map<String, Long> runStages(File project) throws IOException, InterruptedException {
+		final List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+		command.add("-Xmx" + maxHeap);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(FootprintRunner.class.getName());
+		command.add("-dirs");
+		command.add(project.getAbsolutePath());
+		command.add("-cs");
+		command.add(strategies);
+
+		final ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		final Process p = pb.start();
+		final Map<String, Long> stages = new LinkedHashMap<String, Long>();
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(FootprintRunner.RESULT_PREFIX)) {
+					final String[] parts = line.substring(FootprintRunner.RESULT_PREFIX.length()).split("\t");
+					stages.put(parts[0], Long.parseLong(parts[1]));
+				} else if (line.contains("OutOfMemoryError")) {
+					System.err.println(line);
+				}
+			}
+		}
+		if (p.waitFor() != 0) {
+			System.err.println("Footprint run on " + project + " failed.");
+			return null;
+		}
+		return stages;
+	}
+
+	private static Map<String, Long> readReference(File file) throws IOException {
+		final Map<String, Long> references = new LinkedHashMap<String, Long>();
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#") || line.startsWith("classes\t")) {
+					continue;
+				}
+				final String[] parts = line.split("\t");
+				references.put(parts[0] + "\t" + parts[1], Long.parseLong(parts[2]));
+			}
+		}
+		return references;
+	}
+
+	private static void writeReference(File file, Map<String, Long> references) throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		try (PrintWriter out = new PrintWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			out.println("classes\tstage\tbytes_per_class");
+			for (Map.Entry<String, Long> entry : references.entrySet()) {
+				out.println(entry.getKey() + "\t" + entry.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * End-to-end benchmark of the whole pipeline (scene loading, clustering,
+ * json output, -cfm and -wfm) on generated projects. Each strategy is run on
+ * each project size in a fresh JVM and one line per run is appended to the
+ * results file, tagged with the current commit, so results of different
+ * commits can be compared. Run with: gradle benchmark
+ */
+public final class MacroBenchmark {
+
+	@Option(name = "-sizes", usage = "Comma separated number of classes per generated project.")
+	private String sizes = "10000,100000,500000";
+
+	@Option(name = "-cs", usage = "Comma separated clustering strategies to run.")
+	private String strategies = "1,2,3,5";
+
+	@Option(name = "-work", usage = "Directory for the generated projects and outputs.")
+	private String workDir = "build/benchmark";
+
+	@Option(name = "-results", usage = "Tab separated results file. Rows are appended.")
+	private String resultsFile = "build/benchmark/results.tsv";
+
+	@Option(name = "-Xmx", usage = "Max heap of the forked JVMs.")
+	private String maxHeap = "8g";
+
+	@Option(name = "-seed", usage = "Seed of the project generator.")
+	private long seed = 1;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		MacroBenchmark benchmark = new MacroBenchmark();
+		CmdLineParser parser = new CmdLineParser(benchmark);
+		try {
+			parser.parseArgument(args);
+		} catch (CmdLineException e) {
+			parser.printUsage(System.err);
+			return;
+		}
+		benchmark.run();
+	}
+
+	private void run() throws IOException, InterruptedException {
+		final File work = new File(workDir);
+		final File results = new File(resultsFile);
+		final boolean newFile = !results.exists();
+		results.getAbsoluteFile().getParentFile().mkdirs();
+		final String commit = currentCommit();
+		final String date = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+
+		try (PrintWriter out = new PrintWriter(
+				new OutputStreamWriter(new FileOutputStream(results, true), StandardCharsets.UTF_8))) {
+			if (newFile) {
+				out.println("commit\tdate\tclasses\tstrategy\twall_ms\tpeak_rss_kb\tgc_ms\tgc_count");
+			}
+			for (String size : sizes.split(",")) {
+				final int classCount = Integer.parseInt(size.trim());
+				final File project = generatedProject(work, classCount, seed);
+				for (String strategy : strategies.split(",")) {
+					final String[] result = runClusterer(project, new File(work, "out"), strategy.trim());
+					final String row = commit + "\t" + date + "\t" + classCount + "\t" + strategy.trim() + "\t"
+							+ String.join("\t", result);
+					System.out.println(row);
+					out.println(row);
+					out.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates the project once per size and seed and reuses it afterwards.
+	 */
+	static File generatedProject(File work, int classCount, long seed) throws IOException {
+		final File dir = new File(work, "project_" + classCount + "_" + seed);
+		final File done = new File(dir, ".complete");
+		if (!done.exists()) {
+			System.out.println("Generating " + classCount + " classes in " + dir);
+			SyntheticProject.generate(dir, classCount, seed);
+			done.createNewFile();
+		}
+		return dir;
+	}
+
+	/**
+	 * @return wall time, peak rss, gc time, and gc count of the run, or "-1"
+	 *         for all of them if the run failed.
+	 */
+	private String[] runClusterer(File project, File outDir, String strategy)
+			throws IOException, InterruptedException {
+		outDir.mkdirs();
+		final List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+		command.add("-Xmx" + maxHeap);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(BenchmarkRunner.class.getName());
+		command.add("-dirs");
+		command.add(project.getAbsolutePath());
+		command.add("-cs");
+		command.add(strategy);
+		command.add("-out");
+		command.add(new File(outDir, "clusters.json").getAbsolutePath());
+		command.add("-classinfo");
+		command.add(new File(outDir, "class_info.json").getAbsolutePath());
+		command.add("-cfm");
+		command.add(new File(outDir, "class_field_map.json").getAbsolutePath());
+		command.add("-wfm");
+		command.add(new File(outDir, "word_field_map.json").getAbsolutePath());
+
+		final ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		final Process p = pb.start();
+		String[] result = { "-1", "-1", "-1", "-1" };
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(BenchmarkRunner.RESULT_PREFIX)) {
+					result = line.substring(BenchmarkRunner.RESULT_PREFIX.length()).split("\t");
+				}
+			}
+		}
+		if (p.waitFor() != 0) {
+			System.err.println("Run of strategy " + strategy + " on " + project + " failed.");
+		}
+		return result;
+	}
+
+	static String currentCommit() {
+		try {
+			Process p = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").start();
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+				String line = in.readLine();
+				if (p.waitFor() == 0 && line != null) {
+					return line.trim();
+				}
+			}
+		} catch (IOException | InterruptedException e) {
+			// not a git checkout
+		}
+		return "unknown";
+	}
+}
@@ -0,0 +1,399 @@
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a directory of class files with camel case names built from a
+ * fixed vocabulary, spread over packages, with class hierarchies where sub
+ * classes tend to share words with their super class, and fields whose types
+ * are other generated classes. Each package also has a few interfaces in its
+ * api sub package, which its classes implement. Every class has a constructor, getters for some of
+ * its fields, a few named methods, and the methods of its interfaces, with
+ * trivial bodies. The class files are written directly (no javac).
+ *
+ * The same seed and size always produce the same project. The members are
+ * drawn from a random sequence of their own, so the names, hierarchy, and
+ * fields of the classes are the same as without members.
+ */
+public final class SyntheticProject {
+
+	private static final String[] WORDS = { "Abstract", "Account", "Action", "Adapter", "Address", "Audio", "Body",
+			"Box", "Buffer", "Builder", "Cache", "Camera", "Capsule", "Channel", "Client", "Collision", "Color",
+			"Config", "Connection", "Context", "Controller", "Cube", "Cylinder", "Data", "Decoder", "Default",
+			"Document", "Encoder", "Engine", "Entity", "Error", "Event", "Exception", "Factory", "File", "Filter",
+			"Frame", "Graph", "Handler", "Helper", "Image", "Impl", "Index", "Input", "Item", "Key", "Layer",
+			"Light", "List", "Listener", "Loader", "Manager", "Map", "Material", "Matrix", "Mesh", "Message", "Model",
+			"Node", "Order", "Output", "Parser", "Path", "Physics", "Player", "Point", "Pool", "Provider", "Quad",
+			"Query", "Ray", "Reader", "Record", "Render", "Request", "Resource", "Response", "Scene", "Server",
+			"Service", "Session", "Shader", "Shape", "Simple", "Sphere", "State", "Stream", "Task", "Texture",
+			"Thread", "Token", "Transform", "Tree", "User", "Util", "Value", "Vector", "View", "Window", "Writer" };
+
+	private static final String[] PACKAGES = { "core", "io", "net", "ui", "render", "physics", "model", "util",
+			"service", "data" };
+
+	private static final int CLASSES_PER_PACKAGE = 500;
+
+	private static final int INTERFACES_PER_PACKAGE = 8;
+
+	/** the last words of interface names. */
+	private static final String[] ROLES = { "Listener", "Handler", "Provider", "Visitor" };
+
+	/** the first words of method names. */
+	private static final String[] VERBS = { "apply", "build", "create", "find", "handle", "load", "reset",
+			"update" };
+
+	/**
+	 * Writes a project with the given number of classes, plus
+	 * INTERFACES_PER_PACKAGE interfaces per package, into dir.
+	 *
+	 * @param dir
+	 *            the class dir to write to.
+	 * @param classCount
+	 * @param seed
+	 * @throws IOException
+	 */
+	public static void generate(File dir, int classCount, long seed) throws IOException {
+		final Random rnd = new Random(seed);
+		final Random memberRnd = new Random(seed + 1);
+		final List<String> classNames = new ArrayList<String>(classCount);
+		final Map<String, Integer> used = new HashMap<String, Integer>();
+		final Map<String, Integer> usedInterfaces = new HashMap<String, Integer>();
+		final List<String> interfaces = new ArrayList<String>(INTERFACES_PER_PACKAGE);
+		final Map<String, String[]> interfaceMethods = new HashMap<String, String[]>();
+
+		for (int i = 0; i < classCount; i++) {
+			final int pkg = i / CLASSES_PER_PACKAGE;
+			final String packageName = "gen/" + PACKAGES[pkg % PACKAGES.length] + "/p" + pkg;
+			final int localStart = pkg * CLASSES_PER_PACKAGE;
+
+			if (i == localStart) {
+				interfaces.clear();
+				for (int k = 0; k < INTERFACES_PER_PACKAGE; k++) {
+					final String simple = word(memberRnd) + ROLES[memberRnd.nextInt(ROLES.length)];
+					final String name = unique(packageName + "/api/" + simple, usedInterfaces);
+					final String[] methods = new String[1 + memberRnd.nextInt(2)];
+					for (int m = 0; m < methods.length; m++) {
+						methods[m] = methodName(memberRnd);
+					}
+					interfaces.add(name);
+					interfaceMethods.put(name, methods);
+					write(dir, name, interfaceFile(name, methods));
+				}
+			}
+
+			// sub classes prefer a super class in the same package and reuse its last word.
+			String superName = "java/lang/Object";
+			StringBuilder simpleName = new StringBuilder();
+			if (i > localStart && rnd.nextInt(3) > 0) {
+				superName = classNames.get(localStart + rnd.nextInt(i - localStart));
+				simpleName.append(word(rnd));
+				if (rnd.nextBoolean()) {
+					simpleName.append(word(rnd));
+				}
+				simpleName.append(lastWord(superName));
+			} else {
+				int words = 1 + rnd.nextInt(3);
+				for (int w = 0; w < words; w++) {
+					simpleName.append(word(rnd));
+				}
+			}
+			final String name = unique(packageName + "/" + simpleName, used);
+			classNames.add(name);
+
+			final int fieldCount = rnd.nextInt(6);
+			final String[] fieldNames = new String[fieldCount];
+			final String[] fieldTypes = new String[fieldCount];
+			for (int f = 0; f < fieldCount; f++) {
+				final int kind = rnd.nextInt(4);
+				if (kind == 0 || i == 0) {
+					fieldTypes[f] = "I";
+					fieldNames[f] = lowerFirst(word(rnd)) + "Count";
+				} else if (kind == 1) {
+					fieldTypes[f] = "Ljava/lang/String;";
+					fieldNames[f] = lowerFirst(word(rnd)) + "Name";
+				} else {
+					final String type = classNames.get(rnd.nextInt(i));
+					fieldTypes[f] = "L" + type + ";";
+					fieldNames[f] = (rnd.nextBoolean() ? lowerFirst(word(rnd)) : "") + lastWord(type);
+					fieldNames[f] = lowerFirst(fieldNames[f]);
+				}
+				fieldNames[f] = fieldNames[f] + f;
+			}
+
+			final List<String> implemented = new ArrayList<String>();
+			final Map<String, String> methods = new LinkedHashMap<String, String>();
+			for (int k = memberRnd.nextInt(3); k > 0; k--) {
+				final String itf = interfaces.get(memberRnd.nextInt(interfaces.size()));
+				if (!implemented.contains(itf)) {
+					implemented.add(itf);
+					for (String method : interfaceMethods.get(itf)) {
+						methods.put(method, "()V");
+					}
+				}
+			}
+			for (int m = memberRnd.nextInt(3); m >= 0; m--) {
+				methods.put(methodName(memberRnd), "()V");
+			}
+			write(dir, name, classFile(name, superName, implemented, fieldNames, fieldTypes, methods));
+		}
+	}
+
+	private static String unique(String name, Map<String, Integer> used) {
+		final Integer n = used.get(name);
+		used.put(name, n == null ? 1 : n + 1);
+		return n == null ? name : name + n;
+	}
+
+	private static void write(File dir, String name, byte[] bytes) throws IOException {
+		final File classFile = new File(dir, name + ".class");
+		classFile.getParentFile().mkdirs();
+		try (FileOutputStream out = new FileOutputStream(classFile)) {
+			out.write(bytes);
+		}
+	}
+
+	private static String methodName(Random rnd) {
+		return VERBS[rnd.nextInt(VERBS.length)] + word(rnd);
+	}
+
+	private static String word(Random rnd) {
+		return WORDS[rnd.nextInt(WORDS.length)];
+	}
+
+	private static String lastWord(String internalName) {
+		String simple = internalName.substring(internalName.lastIndexOf('/') + 1);
+		int i = simple.length() - 1;
+		while (i > 0 && !Character.isUpperCase(simple.charAt(i))) {
+			i--;
+		}
+		return simple.substring(i).replaceAll("[0-9]", "");
+	}
+
+	private static String lowerFirst(String s) {
+		return s.isEmpty() ? s : Character.toLowerCase(s.charAt(0)) + s.substring(1);
+	}
+
+	/**
+	 * A Java 8 class file with the given private fields, a constructor, a
+	 * getter for each of the first two fields, and the given methods, which
+	 * return immediately.
+	 *
+	 * @param methods
+	 *            name -> descriptor of the methods besides the constructor
+	 *            and the getters.
+	 */
+	static byte[] classFile(String name, String superName, List<String> interfaces, String[] fieldNames,
+			String[] fieldTypes, Map<String, String> methods) throws IOException {
+		final ConstantPool cp = new ConstantPool();
+		final int thisClass = cp.classRef(name);
+		final int superClass = cp.classRef(superName);
+		final int code = cp.utf8("Code");
+		final int[] itfIdx = new int[interfaces.size()];
+		for (int k = 0; k < itfIdx.length; k++) {
+			itfIdx[k] = cp.classRef(interfaces.get(k));
+		}
+		final int[] nameIdx = new int[fieldNames.length];
+		final int[] typeIdx = new int[fieldNames.length];
+		for (int f = 0; f < fieldNames.length; f++) {
+			nameIdx[f] = cp.utf8(fieldNames[f]);
+			typeIdx[f] = cp.utf8(fieldTypes[f]);
+		}
+
+		final List<byte[]> methodInfos = new ArrayList<byte[]>();
+		// aload_0, invokespecial super.<init>, return
+		final int superInit = cp.methodRef(superName, "<init>", "()V");
+		methodInfos.add(method(cp.utf8("<init>"), cp.utf8("()V"), code, 1,
+				new byte[] { 0x2a, (byte) 0xb7, (byte) (superInit >> 8), (byte) superInit, (byte) 0xb1 }));
+		final Map<String, String> all = new LinkedHashMap<String, String>();
+		for (int f = 0; f < Math.min(2, fieldNames.length); f++) {
+			// aload_0, getfield, ireturn or areturn
+			final int field = cp.fieldRef(name, fieldNames[f], fieldTypes[f]);
+			final byte ret = (byte) ("I".equals(fieldTypes[f]) ? 0xac : 0xb0);
+			final String getter = "get" + Character.toUpperCase(fieldNames[f].charAt(0)) + fieldNames[f].substring(1);
+			all.put(getter, "()" + fieldTypes[f]);
+			methodInfos.add(method(cp.utf8(getter), cp.utf8("()" + fieldTypes[f]), code, 1,
+					new byte[] { 0x2a, (byte) 0xb4, (byte) (field >> 8), (byte) field, ret }));
+		}
+		for (Map.Entry<String, String> m : methods.entrySet()) {
+			if (!all.containsKey(m.getKey())) {
+				all.put(m.getKey(), m.getValue());
+				methodInfos.add(method(cp.utf8(m.getKey()), cp.utf8(m.getValue()), code, 0,
+						new byte[] { (byte) 0xb1 }));
+			}
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0); // minor
+		out.writeShort(52); // major, Java 8
+		cp.writeTo(out);
+		out.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(itfIdx.length);
+		for (int idx : itfIdx) {
+			out.writeShort(idx);
+		}
+		out.writeShort(fieldNames.length);
+		for (int f = 0; f < fieldNames.length; f++) {
+			out.writeShort(0x0002); // ACC_PRIVATE
+			out.writeShort(nameIdx[f]);
+			out.writeShort(typeIdx[f]);
+			out.writeShort(0); // attributes
+		}
+		out.writeShort(methodInfos.size());
+		for (byte[] m : methodInfos) {
+			out.write(m);
+		}
+		out.writeShort(0); // attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * A Java 8 interface with the given abstract void methods.
+	 */
+	static byte[] interfaceFile(String name, String[] methods) throws IOException {
+		final ConstantPool cp = new ConstantPool();
+		final int thisClass = cp.classRef(name);
+		final int superClass = cp.classRef("java/lang/Object");
+		final int descriptor = cp.utf8("()V");
+		final List<Integer> methodNames = new ArrayList<Integer>();
+		for (String method : methods) {
+			final int idx = cp.utf8(method);
+			if (!methodNames.contains(idx)) {
+				methodNames.add(idx);
+			}
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0); // minor
+		out.writeShort(52); // major, Java 8
+		cp.writeTo(out);
+		out.writeShort(0x0601); // ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0); // interfaces
+		out.writeShort(0); // fields
+		out.writeShort(methodNames.size());
+		for (int idx : methodNames) {
+			out.writeShort(0x0401); // ACC_PUBLIC | ACC_ABSTRACT
+			out.writeShort(idx);
+			out.writeShort(descriptor);
+			out.writeShort(0); // attributes
+		}
+		out.writeShort(0); // attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * A public method with a Code attribute, whose only local is this.
+	 */
+	private static byte[] method(int name, int descriptor, int codeAttribute, int maxStack, byte[] code)
+			throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeShort(0x0001); // ACC_PUBLIC
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1); // attributes
+		out.writeShort(codeAttribute);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(1); // max locals
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static final class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> entries = new HashMap<String, Integer>();
+		private int next = 1;
+
+		int utf8(String s) throws IOException {
+			Integer idx = entries.get("U" + s);
+			if (idx == null) {
+				out.writeByte(1);
+				out.writeUTF(s);
+				idx = next++;
+				entries.put("U" + s, idx);
+			}
+			return idx;
+		}
+
+		int classRef(String internalName) throws IOException {
+			Integer idx = entries.get("C" + internalName);
+			if (idx == null) {
+				final int nameIdx = utf8(internalName);
+				out.writeByte(7);
+				out.writeShort(nameIdx);
+				idx = next++;
+				entries.put("C" + internalName, idx);
+			}
+			return idx;
+		}
+
+		int methodRef(String owner, String name, String descriptor) throws IOException {
+			return memberRef(10, owner, name, descriptor);
+		}
+
+		int fieldRef(String owner, String name, String descriptor) throws IOException {
+			return memberRef(9, owner, name, descriptor);
+		}
+
+		private int memberRef(int tag, String owner, String name, String descriptor) throws IOException {
+			final String key = "M" + tag + owner + "." + name + ":" + descriptor;
+			Integer idx = entries.get(key);
+			if (idx == null) {
+				final int classIdx = classRef(owner);
+				final int nameAndType = nameAndType(name, descriptor);
+				out.writeByte(tag);
+				out.writeShort(classIdx);
+				out.writeShort(nameAndType);
+				idx = next++;
+				entries.put(key, idx);
+			}
+			return idx;
+		}
+
+		private int nameAndType(String name, String descriptor) throws IOException {
+			final String key = "N" + name + ":" + descriptor;
+			Integer idx = entries.get(key);
+			if (idx == null) {
+				final int nameIdx = utf8(name);
+				final int descriptorIdx = utf8(descriptor);
+				out.writeByte(12);
+				out.writeShort(nameIdx);
+				out.writeShort(descriptorIdx);
+				idx = next++;
+				entries.put(key, idx);
+			}
+			return idx;
+		}
+
+				void writeTo(DataOutputStream target) throws IOException {
+			out.flush();
+			target.writeShort(next);
+			bytes.writeTo(target);
+		}
+	}
+}
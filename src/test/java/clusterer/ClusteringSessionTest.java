@@ -0,0 +1,144 @@
+package clusterer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import benchmark.SyntheticProject;
+import regression.Util;
+
+/**
+ * Runs the command line and a {@link ClusteringSession} on the same
+ * generated project and compares their clusters. The session loads the
+ * classes in a soot context of its own, so this also checks that the
+ * tokenizer threads see that context, e.g., which super classes are
+ * application classes, and that sessions running at the same time do not
+ * see each other's classes.
+ *
+ * Both load the english dictionary from /usr/share/dict/words, so the test
+ * is skipped on machines without it. Strategy 4 is not covered, because it
+ * needs python and spacy.
+ */
+public class ClusteringSessionTest {
+
+	private static final int CLASS_COUNT = 500;
+	private static final long SEED = 11;
+	private static final String STRATEGY_LIST = "1,2,3,5,6,7";
+	private static final List<Integer> STRATEGIES = Arrays.asList(1, 2, 3, 5, 6, 7);
+	private static final int CONCURRENT_RUNS = 8;
+
+	private final List<File> tempDirs = new ArrayList<File>();
+
+	@Before
+	public void checkDictionary() {
+		Assume.assumeTrue("No dictionary in /usr/share/dict/words", new File("/usr/share/dict/words").isFile());
+	}
+
+	@After
+	public void delete() {
+		for (File dir : tempDirs) {
+			Util.deleteRecursively(dir);
+		}
+	}
+
+	@Test
+	public void sessionMatchesCommandLine() throws Exception {
+		final File project = project(SEED);
+		final File outDir = tempDir("session_out");
+
+		soot.G.reset();
+		ClusterGenerator.main(new String[] { "-dirs", project.getAbsolutePath(), "-apponly", "-cs", STRATEGY_LIST,
+				"-out", new File(outDir, "clusters.json").getAbsolutePath(),
+				"-classinfo", new File(outDir, "class_info.json").getAbsolutePath() });
+
+		final ClusteringSession.Result result = session(project).cluster();
+
+		for (int strategy : STRATEGIES) {
+			final File actual = new File(outDir, "session_cs" + strategy + ".json");
+			ClusterGenerator.writeToJson(clusters(result, strategy), actual, null);
+			Assert.assertEquals("clusters of strategy " + strategy,
+					read(new File(outDir, "clusters_cs" + strategy + ".json")), read(actual));
+		}
+	}
+
+	@Test
+	public void concurrentSessionsMatchSequentialRuns() throws Exception {
+		final File[] projects = { project(SEED), project(SEED + 1) };
+		final List<List<Object>> expected = new ArrayList<List<Object>>();
+		for (File project : projects) {
+			expected.add(allClusters(session(project).cluster()));
+		}
+
+		final ExecutorService pool = Executors.newFixedThreadPool(CONCURRENT_RUNS);
+		try {
+			final List<Future<ClusteringSession.Result>> runs = new ArrayList<Future<ClusteringSession.Result>>();
+			for (int i = 0; i < CONCURRENT_RUNS; i++) {
+				final ClusteringSession session = session(projects[i % projects.length]);
+				runs.add(pool.submit(session::cluster));
+			}
+			for (int i = 0; i < CONCURRENT_RUNS; i++) {
+				Assert.assertEquals("clusters of run " + i, expected.get(i % projects.length),
+						allClusters(runs.get(i).get()));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private File project(long seed) throws IOException {
+		final File project = tempDir("session");
+		SyntheticProject.generate(project, CLASS_COUNT, seed);
+		return project;
+	}
+
+	private File tempDir(String prefix) throws IOException {
+		final File dir = Files.createTempDirectory(prefix).toFile();
+		tempDirs.add(dir);
+		return dir;
+	}
+
+	private static ClusteringSession session(File project) throws Exception {
+		return ClusteringSession.fromArgs("-dirs", project.getAbsolutePath(), "-apponly", "-cs", STRATEGY_LIST);
+	}
+
+	/**
+	 * @return the clusters of all strategies, in order, with their members
+	 *         in order.
+	 */
+	private static List<Object> allClusters(ClusteringSession.Result result) {
+		final List<Object> clusters = new ArrayList<Object>();
+		for (int strategy : STRATEGIES) {
+			clusters.add(new ArrayList<Object>(result.clusters(strategy).entrySet()));
+		}
+		return clusters;
+	}
+
+	private static Map<String, Set<String>> clusters(ClusteringSession.Result result, int strategy) {
+		final Map<String, Set<String>> clusters = new LinkedHashMap<String, Set<String>>();
+		for (Map.Entry<String, List<String>> entry : result.clusters(strategy).entrySet()) {
+			clusters.put(entry.getKey(), new LinkedHashSet<String>(entry.getValue()));
+		}
+		return clusters;
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
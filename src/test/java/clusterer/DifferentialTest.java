@@ -0,0 +1,228 @@
+package clusterer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import soot.SootClass;
+
+/**
+ * Compares the implementations in the main tree against the frozen copies in
+ * {@link ReferenceImplementations} on randomly generated identifiers, keys,
+ * and clusters. The results must be exactly the same, including the bits of
+ * the similarity scores and every byte of the json files.
+ *
+ * The inputs are generated from a seed, which is printed with every failure.
+ * A failure can be reproduced with -Ddifferential.seed=N.
+ */
+public class DifferentialTest {
+
+	private static final long SEED = Long.getLong("differential.seed", 1L);
+	private static final int ITERATIONS = 5000;
+
+	/** a small dictionary, so that both hits and misses of prefixes occur. */
+	private static final Set<String> DICT = new HashSet<String>(Arrays.asList("abs", "abstract", "account",
+			"action", "adapt", "adapter", "buffer", "buff", "cache", "client", "con", "connect", "connection", "data",
+			"event", "exception", "factory", "file", "handler", "hand", "input", "list", "listen", "listener", "man",
+			"manage", "manager", "node", "out", "output", "reader", "read", "stream", "string", "user", "writer"));
+
+	private static final String[] SYLLABLES = { "abs", "tract", "account", "ac", "tion", "adapter", "buff", "er",
+			"cache", "client", "con", "nect", "ion", "data", "event", "exception", "factory", "file", "hand", "ler",
+			"input", "list", "en", "man", "age", "node", "out", "put", "read", "stream", "string", "user", "write",
+			"x", "q", "io", "ui", "url", "id", "xml", "http" };
+
+	private final Random rnd = new Random(SEED);
+
+	@Test
+	public void splitIntoWordsMatchesReference() {
+		for (int i = 0; i < ITERATIONS; i++) {
+			final String identifier = identifier();
+			Assert.assertEquals(failure("splitIntoWords", identifier),
+					ReferenceImplementations.splitIntoWords(identifier, DICT),
+					ClusterGenerator.splitIntoWords(identifier, DICT));
+		}
+	}
+
+	@Test
+	public void similarityMatchesReference() {
+		for (int i = 0; i < ITERATIONS; i++) {
+			final String s1 = key();
+			final String s2 = rnd.nextInt(4) == 0 ? mutate(s1) : key();
+			final double expected = ReferenceImplementations.similarity(s1, s2);
+			final double actual = RatcliffObershelp.similarity(s1, s2);
+			if (Double.compare(expected, actual) != 0) {
+				Assert.fail(failure("similarity", s1 + ", " + s2) + ": expected " + expected + " but was " + actual);
+			}
+		}
+	}
+
+	@Test
+	public void makeKeyMatchesReference() {
+		for (int i = 0; i < ITERATIONS; i++) {
+			final List<String> words = words();
+			Assert.assertEquals(failure("makeKey", words.toString()), ReferenceImplementations.makeKey(words),
+					ClusterGenerator.makeKey(words));
+		}
+	}
+
+	@Test
+	public void resolveKeyMatchesReference() {
+		// grows the map like strategy 5 does, so that later keys are resolved
+		// against a map that contains earlier resolutions.
+		final TreeMap<String, Integer> clusters = new TreeMap<String, Integer>();
+		for (int i = 0; i < ITERATIONS; i++) {
+			final List<String> words = words();
+			final String key = ReferenceImplementations.makeKey(words);
+			final String expected = ReferenceImplementations.resolveKey(key, words, clusters);
+			final String actual = ClusterGenerator.resolveKey(key, words, clusters);
+			Assert.assertEquals(failure("resolveKey", key + " in " + clusters.size() + " keys"), expected, actual);
+			clusters.merge(expected, 1, Integer::sum);
+		}
+	}
+
+	@Test
+	public void writeToJsonMatchesReference() throws IOException {
+		for (int i = 0; i < 200; i++) {
+			final Map<String, Set<String>> clusters = new LinkedHashMap<String, Set<String>>();
+			// the reference still writes soot classes.
+			final Map<String, Set<SootClass>> referenceClusters = new LinkedHashMap<String, Set<SootClass>>();
+			final int clusterCount = rnd.nextInt(6);
+			for (int c = 0; c < clusterCount; c++) {
+				final Set<String> types = new LinkedHashSet<String>();
+				final Set<SootClass> referenceTypes = new LinkedHashSet<SootClass>();
+				final int typeCount = 1 + rnd.nextInt(4);
+				for (int t = 0; t < typeCount; t++) {
+					final String type = "p" + rnd.nextInt(3) + "." + identifier();
+					if (types.add(type)) {
+						referenceTypes.add(new SootClass(type));
+					}
+				}
+				final String key = key();
+				clusters.put(key, types);
+				referenceClusters.put(key, referenceTypes);
+			}
+			final String partialReason = partialReason();
+			final File file = File.createTempFile("clusters", ".json");
+			try {
+				ClusterGenerator.writeToJson(clusters, file, partialReason);
+				Assert.assertEquals(failure("writeToJson", clusters.keySet().toString()),
+						ReferenceImplementations.writeToJson(referenceClusters, partialReason), read(file));
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void writeMappingsToJsonMatchesReference() throws IOException {
+		for (int i = 0; i < 200; i++) {
+			final List<Map<String, List<String>>> mappings = new ArrayList<Map<String, List<String>>>();
+			final Map<String, String> index = new LinkedHashMap<String, String>();
+			final int mapCount = rnd.nextInt(3);
+			for (int m = 0; m < mapCount; m++) {
+				final Map<String, List<String>> map = new TreeMap<String, List<String>>();
+				final int keyCount = rnd.nextInt(5);
+				for (int k = 0; k < keyCount; k++) {
+					final List<String> fields = new ArrayList<String>();
+					final int fieldCount = 1 + rnd.nextInt(4);
+					for (int f = 0; f < fieldCount; f++) {
+						final String field = identifier();
+						if (rnd.nextBoolean()) {
+							index.put(field, "p." + identifier());
+						}
+						fields.add(field);
+					}
+					map.put(key(), fields);
+				}
+				mappings.add(map);
+			}
+			final String partialReason = partialReason();
+			final File file = File.createTempFile("fields", ".json");
+			try {
+				ClusterGenerator.writeMappingsToJson(mappings, index, file, partialReason);
+				Assert.assertEquals(failure("writeMappingsToJson", mappings.toString()),
+						ReferenceImplementations.writeMappingsToJson(mappings, index, partialReason), read(file));
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	private static String failure(String method, String input) {
+		return method + " differs from the reference on " + input + " (seed " + SEED + ")";
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a Java like identifier, mostly camel case, sometimes with
+	 *         acronyms, digits, underscores, or a leading lower case letter.
+	 */
+	private String identifier() {
+		final StringBuilder sb = new StringBuilder();
+		final int parts = 1 + rnd.nextInt(5);
+		for (int i = 0; i < parts; i++) {
+			final String syllable = SYLLABLES[rnd.nextInt(SYLLABLES.length)];
+			switch (rnd.nextInt(8)) {
+			case 0:
+				sb.append(syllable.toUpperCase());
+				break;
+			case 1:
+				sb.append(syllable);
+				break;
+			case 2:
+				sb.append(syllable).append(rnd.nextInt(10));
+				break;
+			case 3:
+				sb.append('_').append(Character.toUpperCase(syllable.charAt(0))).append(syllable.substring(1));
+				break;
+			default:
+				sb.append(Character.toUpperCase(syllable.charAt(0))).append(syllable.substring(1));
+			}
+		}
+		return sb.toString();
+	}
+
+	private List<String> words() {
+		return ReferenceImplementations.splitIntoWords(identifier(), DICT);
+	}
+
+	private String key() {
+		return ReferenceImplementations.makeKey(words());
+	}
+
+	/** @return s with one character changed, inserted, or removed. */
+	private String mutate(String s) {
+		final StringBuilder sb = new StringBuilder(s);
+		final int pos = rnd.nextInt(sb.length() + 1);
+		final char c = (char) ('a' + rnd.nextInt(26));
+		if (pos == sb.length() || rnd.nextBoolean()) {
+			sb.insert(pos, c);
+		} else if (rnd.nextBoolean()) {
+			sb.setCharAt(pos, c);
+		} else {
+			sb.deleteCharAt(pos);
+		}
+		return sb.toString();
+	}
+
+	private String partialReason() {
+		return rnd.nextBoolean() ? null : "budget exceeded after " + rnd.nextInt(1000) + "ms";
+	}
+}
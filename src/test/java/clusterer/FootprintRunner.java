@@ -0,0 +1,106 @@
+package clusterer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+
+import clusterer.ClusterGenerator.TokenizedClass;
+import soot.Scene;
+import soot.SootClass;
+
+/**
+ * Loads class directories, tokenizes the classes, and runs each strategy of
+ * -cs in the current JVM, and prints the heap retained by each stage per
+ * application class, one line per stage:
+ *
+ * <pre>
+ * FOOTPRINT	load	1834
+ * FOOTPRINT	tokenize	96
+ * FOOTPRINT	strategy3	41
+ * </pre>
+ *
+ * load is measured against the heap before loading (with the dictionary
+ * already loaded), tokenize against the loaded scene, and each strategy
+ * against the tokenized classes, whose clusters are dropped before the next
+ * strategy runs. Used by benchmark.FootprintBenchmark in a forked JVM with a
+ * fixed max heap.
+ */
+public final class FootprintRunner {
+
+	public static final String RESULT_PREFIX = "FOOTPRINT\t";
+
+	/** keeps the results of the stages reachable while the heap is measured. */
+	private static final List<Object> retained = new ArrayList<Object>();
+
+	public static void main(String[] args) {
+		final Options options = new Options();
+		final CmdLineParser parser = new CmdLineParser(options);
+		try {
+			parser.parseArgument(args);
+		} catch (CmdLineException e) {
+			parser.printUsage(System.err);
+			System.exit(2);
+		}
+		final List<Integer> strategies = options.getClusteringStrategies();
+		final RunContext context = new RunContext(options, new ConcurrentHashMap<String, String>());
+		final Set<String> dict = ClusterGenerator.loadDictionary();
+		final PackageFilter filter = options.getPackageFilter();
+
+		final long empty = retainedHeap();
+		SceneLoader.loadFromClassDirs(options.classDirList, ".", filter, options.applicationOnly);
+		final int classCount = Scene.v().getApplicationClasses().size();
+		final List<SootClass> classes = ClusterGenerator.getAllClasses(filter, options.applicationOnly);
+		final long loaded = retainedHeap();
+		report("load", loaded - empty, classCount);
+
+		final Map<String, int[]> splitCache = new HashMap<String, int[]>();
+		final List<TokenizedClass> tokenized = new ArrayList<TokenizedClass>(classes.size());
+		for (SootClass sc : classes) {
+			TokenizedClass tc = ClusterGenerator.tokenize(sc, dict, splitCache, context.words);
+			if (tc != null) {
+				tokenized.add(tc);
+			}
+		}
+		retained.add(tokenized);
+		final long tokenizedHeap = retainedHeap();
+		report("tokenize", tokenizedHeap - loaded, classCount);
+
+		for (int strategy : strategies) {
+			retained.add(ClusterGenerator.runStrategy(strategy, tokenized, ClusterGenerator.IGNORE_WORDS, context));
+			report("strategy" + strategy, retainedHeap() - tokenizedHeap, classCount);
+			retained.remove(retained.size() - 1);
+		}
+	}
+
+	private static void report(String stage, long bytes, int classCount) {
+		System.out.println(RESULT_PREFIX + stage + "\t" + Math.max(0, bytes) / Math.max(1, classCount));
+	}
+
+	/**
+	 * @return the used heap after full collections, i.e., the heap retained
+	 *         by reachable objects.
+	 */
+	private static long retainedHeap() {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			memory.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+}
@@ -0,0 +1,125 @@
+package clusterer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import benchmark.SyntheticProject;
+
+/**
+ * Runs each strategy on a generated project and compares clusters.json to a
+ * golden file in src/test/resources/golden. Labels and the types of each
+ * cluster are sorted by name before writing, so only changes of the
+ * clusters themselves are reported, not changes of iteration order.
+ *
+ * A missing golden file fails the test. Run with -Dgolden.update=true
+ * (gradle test -PgoldenUpdate) to record all golden files after an intended
+ * change of the clusters. Strategy 4 is not covered, because it needs
+ * python and spacy.
+ */
+@RunWith(Parameterized.class)
+public class GoldenClustersTest {
+
+	private static final String userDir = System.getProperty("user.dir") + "/";
+	private static final File goldenDir = new File(userDir + "src/test/resources/golden");
+	private static final boolean update = Boolean.getBoolean("golden.update");
+
+	private static final int CLASS_COUNT = 2000;
+	private static final long SEED = 7;
+	private static final List<Integer> STRATEGIES = Arrays.asList(1, 2, 3, 5, 6, 7);
+
+	/** fixed, so that the clusters do not depend on /usr/share/dict/words. */
+	private static final Set<String> DICT = new HashSet<String>(Arrays.asList("abstract", "account", "action",
+			"adapt", "adapter", "address", "audio", "body", "box", "buffer", "build", "builder", "cache", "camera",
+			"channel", "client", "color", "config", "connect", "connection", "context", "control", "controller",
+			"cube", "data", "decode", "decoder", "default", "document", "encode", "encoder", "engine", "entity",
+			"error", "event", "exception", "factory", "file", "filter", "frame", "graph", "handle", "handler",
+			"help", "helper", "image", "index", "input", "item", "key", "layer", "light", "list", "listen",
+			"listener", "load", "loader", "manage", "manager", "map", "material", "matrix", "mesh", "message",
+			"model", "node", "order", "output", "parse", "parser", "path", "physics", "play", "player", "point",
+			"pool", "provide", "provider", "quad", "query", "ray", "read", "reader", "record", "render", "request",
+			"resource", "response", "scene", "serve", "server", "service", "session", "shade", "shader", "shape",
+			"simple", "sphere", "state", "stream", "task", "texture", "thread", "token", "transform", "tree", "user",
+			"value", "vector", "view", "window", "write", "writer"));
+
+	private static Map<Integer, Map<String, Set<String>>> clusters = null;
+
+	private final int strategy;
+
+	@Parameterized.Parameters(name = "{index}: strategy {0}")
+	public static Collection<Object[]> data() {
+		List<Object[]> params = new LinkedList<Object[]>();
+		for (int strategy : STRATEGIES) {
+			params.add(new Object[] { strategy });
+		}
+		return params;
+	}
+
+	public GoldenClustersTest(int strategy) {
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Generates and loads the project, and runs all strategies at once, the
+	 * first time a strategy is checked.
+	 */
+	private static synchronized Map<Integer, Map<String, Set<String>>> clusters() throws IOException {
+		if (clusters == null) {
+			final File project = Files.createTempDirectory("golden").toFile();
+			SyntheticProject.generate(project, CLASS_COUNT, SEED);
+			soot.G.reset();
+			SceneLoader.loadFromClassDirs(Collections.singletonList(project.getAbsolutePath()), ".",
+					PackageFilter.ALL, true);
+			final Options options = new Options();
+			options.applicationOnly = true;
+			final RunContext context = new RunContext(options, new ConcurrentHashMap<String, String>());
+			clusters = ClusteringPipeline.run(ClusterGenerator.getAllClasses(PackageFilter.ALL, true), DICT,
+					ClusterGenerator.IGNORE_WORDS, STRATEGIES, context);
+		}
+		return clusters;
+	}
+
+	@Test
+	public void clustersMatchGolden() throws IOException {
+		final Map<String, Set<String>> sorted = new TreeMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : clusters().get(strategy).entrySet()) {
+			sorted.put(entry.getKey(), new TreeSet<String>(entry.getValue()));
+		}
+		final File actual = File.createTempFile("clusters_cs" + strategy, ".json");
+		actual.deleteOnExit();
+		ClusterGenerator.writeToJson(sorted, actual, null);
+
+		final File golden = new File(goldenDir, "clusters_cs" + strategy + ".json");
+		if (update) {
+			goldenDir.mkdirs();
+			Files.copy(actual.toPath(), golden.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return;
+		}
+		Assert.assertTrue("No golden file " + golden + ", run with -Dgolden.update=true to record it",
+				golden.isFile());
+		Assert.assertEquals("clusters of strategy " + strategy + " differ from " + golden, read(golden),
+				read(actual));
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
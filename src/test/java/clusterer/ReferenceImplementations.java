@@ -0,0 +1,240 @@
+package clusterer;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+
+import soot.SootClass;
+
+/**
+ * Frozen copies of the original implementations of word splitting, string
+ * similarity, key resolution, and the json writers. They serve as oracles
+ * for {@link DifferentialTest}: an optimized implementation in the main
+ * tree must produce exactly the same results.
+ *
+ * Do not change these methods to follow a change in the main tree. If a
+ * change of behavior is intended, the differential test has to be changed
+ * along with it, on purpose.
+ */
+final class ReferenceImplementations {
+
+	private ReferenceImplementations() {
+		throw new Error("Utility class");
+	}
+
+	/** ClusterGenerator.splitIntoWords, without the unused stemming call. */
+	static List<String> splitIntoWords(final String identifierName, Set<String> dict) {
+		List<String> words = new LinkedList<>();
+		for (String word : identifierName.split("(?<!(^|[A-Z]))(?=[A-Z])|(?<!^)(?=[A-Z][a-z])")) {
+			String lowerCaseWord = word.toLowerCase();
+			String longestWordFwd = null;
+			for (int i = 0; i <= lowerCaseWord.length(); i++) {
+				String subStr = lowerCaseWord.substring(0, i);
+				if (subStr.length() > 2) {
+					if (dict.contains(subStr)) {
+						longestWordFwd = subStr;
+					}
+				}
+			}
+			if (longestWordFwd == null) {
+				longestWordFwd = lowerCaseWord;
+			}
+			words.add(longestWordFwd);
+		}
+		return words;
+	}
+
+	/** RatcliffObershelp.similarity */
+	static double similarity(String s1, String s2) {
+		if (s1 == null || s2 == null) {
+			throw new NullPointerException("one of the provided strings is null");
+		}
+		if (Objects.equals(s1, s2)) {
+			return 1.0d;
+		}
+		final List<String> matches = matchingCharsList(s1, s2);
+		int sumOfMatches = 0;
+		for (String eachMatch : matches) {
+			sumOfMatches += eachMatch.length();
+		}
+		return 2.0d * sumOfMatches / (s1.length() + s2.length());
+	}
+
+	private static List<String> matchingCharsList(final String s1, final String s2) {
+		List<String> list = new ArrayList<>();
+		String match = frontMaxMatch(s1, s2);
+		if (match.length() > 0) {
+			String frontSource = s1.substring(0, s1.indexOf(match));
+			String frontTarget = s2.substring(0, s2.indexOf(match));
+			List<String> frontQueue = matchingCharsList(frontSource, frontTarget);
+
+			String endSource = s1.substring(s1.indexOf(match) + match.length());
+			String endTarget = s2.substring(s2.indexOf(match) + match.length());
+			List<String> endQueue = matchingCharsList(endSource, endTarget);
+
+			list.add(match);
+			list.addAll(frontQueue);
+			list.addAll(endQueue);
+		}
+		return list;
+	}
+
+	private static String frontMaxMatch(final String s1, final String s2) {
+		int longest = 0;
+		String longestSubstring = "";
+		for (int i = 0; i < s1.length(); ++i) {
+			for (int j = i + 1; j <= s1.length(); ++j) {
+				String substring = s1.substring(i, j);
+				if (s2.contains(substring) && substring.length() > longest) {
+					longest = substring.length();
+					longestSubstring = substring;
+				}
+			}
+		}
+		return longestSubstring;
+	}
+
+	/** ClusterGenerator.makeKey */
+	static String makeKey(List<String> words) {
+		List<String> reversed = new LinkedList<>(words);
+		Collections.reverse(reversed);
+		StringBuilder sb = new StringBuilder();
+		for (String s : reversed) {
+			sb.append(s);
+			sb.append(";");
+		}
+		return sb.toString();
+	}
+
+	/** ClusterGenerator.resolveKey, without the flight recorder event. */
+	static <V> String resolveKey(String key, List<String> stemmedWords, SortedMap<String, V> clusters) {
+		final String head = stemmedWords.get(stemmedWords.size() - 1);
+		double longest = 0.0d;
+		String candKey = "";
+		for (Map.Entry<String, V> entry : searchByPrefix(clusters, head).entrySet()) {
+			if ("".equals(candKey)) {
+				candKey = entry.getKey();
+				longest = similarity(key, candKey);
+			} else {
+				double newLongest = similarity(key, entry.getKey());
+				if (Double.compare(newLongest, longest) > 0) {
+					candKey = entry.getKey();
+					longest = newLongest;
+				}
+			}
+		}
+		if ("".equals(candKey)) {
+			candKey = key;
+		} else if (Double.compare(longest, 0.6) <= 0) {
+			candKey = key;
+		}
+		return candKey;
+	}
+
+	private static <V> SortedMap<String, V> searchByPrefix(SortedMap<String, V> baseMap, String prefix) {
+		if (prefix.length() > 0) {
+			char nextLetter = (char) (prefix.charAt(prefix.length() - 1) + 1);
+			String end = prefix.substring(0, prefix.length() - 1) + nextLetter;
+			return baseMap.subMap(prefix, end);
+		}
+		return baseMap;
+	}
+
+	/** ClusterGenerator.writeToJson */
+	static String writeToJson(Map<String, Set<SootClass>> clusters, String partialReason) {
+		final StringWriter out = new StringWriter();
+		try (PrintWriter writer = new PrintWriter(out)) {
+			writer.println("{\n\t\"mappings\": [");
+			boolean first = true;
+			for (Entry<String, Set<SootClass>> entry : clusters.entrySet()) {
+				if (first) {
+					first = false;
+				} else {
+					writer.println(",");
+				}
+				writer.println("\t\t{");
+				writer.println("\t\t \"types\":[");
+				boolean firstSignature = true;
+				for (SootClass sc : entry.getValue()) {
+					if (firstSignature) {
+						firstSignature = false;
+					} else {
+						writer.println(",");
+					}
+					writer.print("\t\t\t\"");
+					writer.print(sc.getName());
+					writer.print("\"");
+				}
+				writer.println("\n\t\t ],");
+				writer.println("\t\t \"labels\":[");
+				writer.println("\t\t\t\"" + entry.getKey() + "\"");
+				writer.println("\t\t ]");
+				writer.print("\n\t\t}");
+			}
+			writer.print("\n\t]");
+			writePartial(writer, partialReason);
+			writer.println("\n}");
+		}
+		return out.toString();
+	}
+
+	/** ClusterGenerator.writeMappingsToJson */
+	static String writeMappingsToJson(List<Map<String, List<String>>> wordToFields, Map<String, String> index,
+			String partialReason) {
+		final StringWriter out = new StringWriter();
+		try (PrintWriter writer = new PrintWriter(out)) {
+			writer.println("{\n\t\"mappings\": [");
+			boolean first = true;
+			for (Map<String, List<String>> map : wordToFields) {
+				for (String eachKey : map.keySet()) {
+					final List<String> eachValue = map.get(eachKey);
+					if (first) {
+						first = false;
+					} else {
+						writer.println(",");
+					}
+					writer.println("\t\t{");
+					writer.println("\t\t \"fields\":[");
+					boolean firstSignature = true;
+					for (String eachField : eachValue) {
+						if (firstSignature) {
+							firstSignature = false;
+						} else {
+							writer.println(",");
+						}
+						writer.print("\t\t\t\"");
+						if (index.containsKey(eachField)) {
+							writer.print(index.get(eachField) + "." + eachField);
+						} else {
+							writer.print(eachField);
+						}
+						writer.print("\"");
+					}
+					writer.println("\n\t\t ],");
+					writer.println("\t\t \"label\":[");
+					writer.println("\t\t\t\"" + eachKey + "\"");
+					writer.println("\t\t ]");
+					writer.print("\n\t\t}");
+				}
+			}
+			writer.print("\n\t]");
+			writePartial(writer, partialReason);
+			writer.println("\n}");
+		}
+		return out.toString();
+	}
+
+	private static void writePartial(PrintWriter writer, String partialReason) {
+		if (partialReason != null) {
+			writer.print(",\n\t\"partial\": true,\n\t\"reason\": \"" + partialReason + "\"");
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package clusterer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import benchmark.SyntheticProject;
+import regression.Util;
+
+/**
+ * Runs the command line with and without -shards on a generated project,
+ * whose packages are split over three directories, and checks that the
+ * clusters of every strategy, the class info, and the field mapping are
+ * the same.
+ *
+ * Needs the english dictionary in /usr/share/dict/words, like
+ * {@link ClusteringSessionTest}.
+ */
+public class ShardedRunTest {
+
+	private static final int CLASS_COUNT = 1500;
+	private static final long SEED = 13;
+	private static final List<Integer> STRATEGIES = Arrays.asList(1, 2, 3, 5, 6, 7);
+
+	private File root;
+	private final List<String> dirs = new ArrayList<String>();
+
+	@Before
+	public void generate() throws IOException {
+		Assume.assumeTrue("No dictionary in /usr/share/dict/words", new File("/usr/share/dict/words").isFile());
+		root = Files.createTempDirectory("sharded").toFile();
+		final File first = new File(root, "dir0");
+		SyntheticProject.generate(first, CLASS_COUNT, SEED);
+		dirs.add(first.getAbsolutePath());
+		// one package per directory.
+		int i = 1;
+		for (String pkg : new String[] { "io", "net" }) {
+			final File dir = new File(root, "dir" + i++);
+			new File(dir, "gen").mkdirs();
+			Files.move(new File(first, "gen/" + pkg).toPath(), new File(dir, "gen/" + pkg).toPath());
+			dirs.add(dir.getAbsolutePath());
+		}
+	}
+
+	@After
+	public void delete() {
+		if (root != null) {
+			Util.deleteRecursively(root);
+		}
+	}
+
+	@Test
+	public void workersMatchSingleProcess() throws Exception {
+		final File single = run("single");
+		final File sharded = run("workers", "-shards", "2");
+		assertSameOutputs(single, sharded);
+	}
+
+	@Test
+	public void threadsMatchSingleProcess() throws Exception {
+		final File single = run("single");
+		final File sharded = run("threads", "-shards", "2", "-shardThreads");
+		assertSameOutputs(single, sharded);
+	}
+
+	private File run(String name, String... extra) throws IOException {
+		final File out = new File(root, name);
+		out.mkdirs();
+		final List<String> args = new ArrayList<String>();
+		args.add("-dirs");
+		args.addAll(dirs);
+		args.addAll(Arrays.asList("-apponly", "-cs", "1,2,3,5,6,7",
+				"-out", new File(out, "clusters.json").getAbsolutePath(),
+				"-classinfo", new File(out, "class_info.json").getAbsolutePath(),
+				"-cfm", new File(out, "cfm.json").getAbsolutePath()));
+		args.addAll(Arrays.asList(extra));
+		soot.G.reset();
+		ClusterGenerator.main(args.toArray(new String[0]));
+		return out;
+	}
+
+	private static void assertSameOutputs(File expected, File actual) throws IOException {
+		final List<String> files = new ArrayList<String>();
+		for (int strategy : STRATEGIES) {
+			files.add("clusters_cs" + strategy + ".json");
+		}
+		files.add("class_info.json");
+		files.add("cfm.json");
+		for (String file : files) {
+			Assert.assertEquals(file, read(new File(expected, file)), read(new File(actual, file)));
+		}
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
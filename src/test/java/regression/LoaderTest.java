@@ -14,9 +14,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import clusterer.CallGraphCache;
 import clusterer.SceneLoader;
 import soot.Scene;
 import soot.SootClass;
+import soot.SootMethod;
 
 /**
  * @author schaef
@@ -65,6 +67,8 @@ public class LoaderTest {
 		File classDir = null;
 		try {
 			classDir = Util.compileJavaFile(this.sourceFile);
+			// other test classes may have loaded a scene in this JVM.
+			soot.G.reset();
 			SceneLoader.loadFromClassDir(classDir, "");			
 			SootClass mainClass = Scene.v().getSootClass("regression_data.Test01");		
 			System.out.println("Doing PTA");
@@ -80,5 +84,64 @@ public class LoaderTest {
 		
 	}
 
-	
+	@Test
+	public void testPTAOnDemand() {
+		File classDir = null;
+		try {
+			soot.G.reset();
+			classDir = Util.compileJavaFile(this.sourceFile);
+			SceneLoader.loadFromClassDir(classDir, "");
+			SootClass mainClass = Scene.v().getSootClass("regression_data.Test01");
+			System.out.println("Doing on-demand PTA");
+			SceneLoader.runPointsToAnalysisOnDemand(mainClass, SceneLoader.DEFAULT_PTA_EXCLUDES);
+			Assert.assertTrue(Scene.v().getCallGraph().size() > 0);
+			// the virtual call in foo is only resolved if B is found to be instantiated.
+			SootMethod vCall = Scene.v().getSootClass("regression_data.B").getMethod("int vCall(int)");
+			Assert.assertTrue(Scene.v().getCallGraph().edgesInto(vCall).hasNext());
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail();
+		} finally {
+			if (classDir!=null) {
+				classDir.deleteOnExit();
+			}
+		}
+	}
+
+	@Test
+	public void testPTACache() {
+		File classDir = null;
+		File cacheFile = null;
+		try {
+			soot.G.reset();
+			classDir = Util.compileJavaFile(this.sourceFile);
+			cacheFile = File.createTempFile("callgraph", ".bin");
+			cacheFile.delete();
+			SceneLoader.loadFromClassDir(classDir, "");
+			SootClass mainClass = Scene.v().getSootClass("regression_data.Test01");
+			Assert.assertFalse(SceneLoader.runPointsToAnalysisCached(mainClass, null, cacheFile));
+
+			soot.G.reset();
+			SceneLoader.loadFromClassDir(classDir, "");
+			mainClass = Scene.v().getSootClass("regression_data.Test01");
+			Assert.assertTrue(SceneLoader.runPointsToAnalysisCached(mainClass, null, cacheFile));
+
+			try (CallGraphCache.Reader reader = CallGraphCache.open(cacheFile)) {
+				List<String> targets = new LinkedList<String>();
+				reader.readEdges((src, tgt, kind) -> targets.add(tgt));
+				Assert.assertTrue(targets.contains("<regression_data.B: int vCall(int)>"));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			Assert.fail();
+		} finally {
+			if (classDir!=null) {
+				classDir.deleteOnExit();
+			}
+			if (cacheFile!=null) {
+				cacheFile.deleteOnExit();
+			}
+		}
+	}
+
 }
@@ -125,4 +125,28 @@ public final class Util {
 		return data;
 	}
 
+	/**
+	 * Deletes a file or a directory with everything in it, e.g., a temp
+	 * directory of a test.
+	 */
+	public static void deleteRecursively(File file) {
+		try {
+			java.nio.file.Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					java.nio.file.Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					java.nio.file.Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 }